@@ -1,7 +1,11 @@
+import LexicalAnalysisGenerator.Analysis.LexicalAnalyzer;
+import LexicalAnalysisGenerator.Analysis.Tokenizer;
 import LexicalAnalysisGenerator.Automaton.Automaton;
 import LexicalAnalysisGenerator.Creation.LexicalRulesParser;
 import LexicalAnalysisGenerator.Creation.Parsing;
 
+import java.io.BufferedReader;
+import java.io.FileReader;
 import java.io.IOException;
 import java.util.Map;
 
@@ -12,8 +16,15 @@ public class App {
     public static void main(String[] args) throws IOException {
         String filePath = "inputs/temp_file.txt";
 //        String filePath = "inputs/lexical_rules.txt";
+        if (args.length > 0) {
+            filePath = args[0];
+        }
         try {
             Map<String, Automaton> map = lexicalRulesParser.parseFile(filePath);
+            if (args.length > 1) {
+                tokenize(map, args[1]);
+                return;
+            }
             for (Map.Entry<String, Automaton> entry:map.entrySet()) {
                 System.out.println("Token: \"" + entry.getKey() +
                         "\", DFA Token: \"" + entry.getValue().getToken() + "\"" +
@@ -23,4 +34,32 @@ public class App {
             throw new RuntimeException(e);
         }
     }
+
+    // Prints the tokens of the source file, then the throughput of a second scan that only counts
+    // them, so that printing isn't timed.
+    private static void tokenize(Map<String, Automaton> map, String sourcePath) throws IOException {
+        LexicalAnalyzer analyzer = LexicalAnalyzer.fromAutomata(map, lexicalRulesParser.getTokenNames());
+        try (BufferedReader reader = new BufferedReader(new FileReader(sourcePath))) {
+            Tokenizer tokenizer = analyzer.tokenize(reader);
+            int tokenType;
+            while ((tokenType = tokenizer.nextToken()) != LexicalAnalyzer.EOF) {
+                String tokenName = (tokenType == LexicalAnalyzer.ERROR) ? "ERROR" : tokenizer.getTokenName();
+                System.out.println(tokenName + "\t" + tokenizer.getLexeme());
+            }
+        }
+
+        long startTime = System.nanoTime();
+        long tokens = 0;
+        long characters = 0;
+        try (BufferedReader reader = new BufferedReader(new FileReader(sourcePath))) {
+            Tokenizer tokenizer = analyzer.tokenize(reader);
+            while (tokenizer.nextToken() != LexicalAnalyzer.EOF) {
+                tokens++;
+            }
+            characters = tokenizer.getTokenEnd();
+        }
+        double seconds = (System.nanoTime() - startTime) / 1e9;
+        System.err.printf("Scanned %d tokens, %d characters in %.3f s (%.2f MB/s)%n",
+                tokens, characters, seconds, characters / seconds / (1 << 20));
+    }
 }
@@ -0,0 +1,124 @@
+package LexicalAnalysisGenerator.Analysis;
+
+import LexicalAnalysisGenerator.Automaton.CompiledDfa;
+import LexicalAnalysisGenerator.Automaton.MappedDfa;
+import LexicalAnalysisGenerator.Creation.LexicalRulesParser;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * This class caches the compiled DFAs of lexical rules files in a directory.
+ * An entry is named after the SHA-256 hash of the contents of a rules file and of the compiler
+ * version, so an unchanged file is never compiled twice, a changed file never hits a stale entry,
+ * and entries can be shared between processes and machines. For the same bytes to compile to the
+ * same DFA everywhere, the rules files are read as UTF-8 whatever the default charset of the JVM.
+ * The entries are {@link MappedDfa} files, a hit only maps the file.
+ * <p>
+ * Entries are never deleted, the directory can be cleared at any time.
+ */
+public class CompilationCache {
+    /**
+     * The version of the compiler, part of every key. It must be changed whenever the compiler
+     * changes the DFA it builds from the same rules.
+     */
+    public static final int COMPILER_VERSION = 6;
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final Path directory;
+    private long hits;
+    private long misses;
+
+    /**
+     * @param directory the cache directory, created if it doesn't exist
+     */
+    public CompilationCache(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Returns the compiled DFA of a lexical rules file, compiling the file only if its entry is
+     * missing (or unreadable).
+     *
+     * @param rulesFile the lexical rules file
+     * @return the DFA mapped from the entry of the file
+     * @throws IOException if reading the rules or writing the entry fails
+     */
+    public MappedDfa load(Path rulesFile) throws IOException {
+        byte[] rules = Files.readAllBytes(rulesFile);
+        Path entry = this.directory.resolve(key(rules) + ".lxdf");
+        if (Files.isRegularFile(entry)) {
+            try {
+                MappedDfa dfa = MappedDfa.map(entry);
+                this.hits++;
+                return dfa;
+            } catch (IllegalArgumentException e) {
+                // a corrupt entry, or one of an older format, is compiled again
+            }
+        }
+        this.misses++;
+        // the rules are parsed from the bytes that were hashed, the file may have changed since
+        LexicalRulesParser parser = new LexicalRulesParser();
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(rules),
+                StandardCharsets.UTF_8));
+        CompiledDfa dfa = LexicalAnalyzer.compile(parser.parse(reader), parser.getTokenNames());
+        Files.createDirectories(this.directory);
+        MappedDfa.write(dfa, entry);
+        return MappedDfa.map(entry);
+    }
+
+    /**
+     * Returns a lexical analyzer for a lexical rules file, see {@link #load}.
+     */
+    public LexicalAnalyzer analyzer(Path rulesFile) throws IOException {
+        return new LexicalAnalyzer(load(rulesFile));
+    }
+
+    /**
+     * @return the key of the entry of a rules file, the hexadecimal SHA-256 of its contents and of
+     * the compiler and file format versions
+     */
+    public static String key(byte[] rules) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available.", e);
+        }
+        digest.update(("LexicalAnalysisGenerator " + COMPILER_VERSION + " " + MappedDfa.VERSION + "\n")
+                .getBytes(StandardCharsets.UTF_8));
+        byte[] hash = digest.digest(rules);
+        char[] key = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            key[2 * i] = HEX_DIGITS[(hash[i] >> 4) & 0xF];
+            key[2 * i + 1] = HEX_DIGITS[hash[i] & 0xF];
+        }
+        return new String(key);
+    }
+
+    public Path getDirectory() {
+        return this.directory;
+    }
+
+    /**
+     * @return the number of loads that found their entry
+     */
+    public long getHitCount() {
+        return this.hits;
+    }
+
+    /**
+     * @return the number of loads that compiled the rules
+     */
+    public long getMissCount() {
+        return this.misses;
+    }
+}
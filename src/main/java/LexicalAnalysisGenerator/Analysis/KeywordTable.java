@@ -0,0 +1,216 @@
+package LexicalAnalysisGenerator.Analysis;
+
+import LexicalAnalysisGenerator.Automaton.Dfa;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class finds the keyword a lexeme is with a collision-free perfect hash of the keywords, so
+ * that a scanner can match the keywords as identifiers and reclassify them afterwards, keeping
+ * them out of its DFA.
+ * The hash is built by hash and displace: a seeded 64-bit hash of a word picks its bucket, and
+ * the word goes to the slot (f1 + d * f2) mod m, where f1 and f2 are two other parts of the
+ * hash and d is the displacement of the bucket. The buckets are placed from the largest down,
+ * each one taking the first displacement that puts all of its words in free slots, and the seed
+ * is changed if a bucket can't be placed. A lookup hashes the lexeme once, reads the displacement
+ * of its bucket and compares the lexeme with the only keyword it can be.
+ * <p>
+ * Only the lexemes of the token types the DFA matches the keywords as (the identifiers) and of
+ * the lengths of the keywords are looked up, the other tokens can't be keywords.
+ */
+public class KeywordTable {
+    private static final int MAX_SEEDS = 1000;
+
+    private final long seed;
+    private final int bucketMask;
+    private final int slotMask;
+    private final int[] displacements;
+    private final char[][] keywords;
+    private final int[] tokenTypes;
+    private final boolean[] lookedUpTypes;
+    private final int minLength;
+    private final int maxLength;
+
+    /**
+     * Builds the table of a set of keywords.
+     *
+     * @param keywords the keywords mapped to their token types
+     * @param dfa      the DFA the keywords are left out of, it must match every keyword
+     * @throws IllegalArgumentException if the DFA doesn't match a keyword
+     */
+    public KeywordTable(Map<String, Integer> keywords, Dfa dfa) {
+        this.lookedUpTypes = new boolean[dfa.getTokenNames().size()];
+        int minLength = Integer.MAX_VALUE;
+        int maxLength = 0;
+        for (String keyword : keywords.keySet()) {
+            int state = dfa.getStartState();
+            for (int i = 0; i < keyword.length() && state != Dfa.NO_STATE; i++) {
+                state = dfa.step(state, keyword.charAt(i));
+            }
+            int tokenType = (state == Dfa.NO_STATE) ? Dfa.NO_TOKEN : dfa.getAcceptToken(state);
+            if (tokenType == Dfa.NO_TOKEN) {
+                throw new IllegalArgumentException("The keyword \"" + keyword + "\" is not matched by any token.");
+            }
+            this.lookedUpTypes[tokenType] = true;
+            minLength = Math.min(minLength, keyword.length());
+            maxLength = Math.max(maxLength, keyword.length());
+        }
+        this.minLength = minLength;
+        this.maxLength = maxLength;
+
+        int n = keywords.size();
+        int slotCount = Integer.highestOneBit(Math.max(1, 2 * n - 1)) << 1;
+        int bucketCount = Integer.highestOneBit(Math.max(1, n / 2));
+        this.slotMask = slotCount - 1;
+        this.bucketMask = bucketCount - 1;
+
+        char[][] words = new char[n][];
+        int[] types = new int[n];
+        int k = 0;
+        for (Map.Entry<String, Integer> keyword : keywords.entrySet()) {
+            words[k] = keyword.getKey().toCharArray();
+            types[k++] = keyword.getValue();
+        }
+
+        for (long seed = 1; seed <= MAX_SEEDS; seed++) {
+            int[] displacements = new int[bucketCount];
+            int[] slots = place(words, seed, displacements);
+            if (slots != null) {
+                this.seed = seed;
+                this.displacements = displacements;
+                this.keywords = new char[slotCount][];
+                this.tokenTypes = new int[slotCount];
+                Arrays.fill(this.tokenTypes, Dfa.NO_TOKEN);
+                for (int i = 0; i < n; i++) {
+                    this.keywords[slots[i]] = words[i];
+                    this.tokenTypes[slots[i]] = types[i];
+                }
+                return;
+            }
+        }
+        throw new IllegalArgumentException("No perfect hash was found for the " + n + " keywords.");
+    }
+
+    /**
+     * Places the words in the slots with a seed.
+     *
+     * @return the slot of every word, or null if a bucket can't be placed
+     */
+    private int[] place(char[][] words, long seed, int[] displacements) {
+        List<List<Integer>> buckets = new ArrayList<>(displacements.length);
+        for (int i = 0; i < displacements.length; i++) {
+            buckets.add(new ArrayList<>());
+        }
+        long[] hashes = new long[words.length];
+        for (int i = 0; i < words.length; i++) {
+            hashes[i] = hash(words[i], 0, words[i].length, seed);
+            buckets.get(bucket(hashes[i])).add(i);
+        }
+        Integer[] order = new Integer[displacements.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> buckets.get(b).size() - buckets.get(a).size());
+
+        boolean[] taken = new boolean[this.slotMask + 1];
+        int[] slots = new int[words.length];
+        for (int b : order) {
+            List<Integer> bucket = buckets.get(b);
+            if (bucket.isEmpty()) {
+                break;
+            }
+            int displacement = 0;
+            for (; displacement <= this.slotMask; displacement++) {
+                boolean free = true;
+                for (int j = 0; j < bucket.size() && free; j++) {
+                    int slot = slot(hashes[bucket.get(j)], displacement);
+                    free = !taken[slot];
+                    // two words of the bucket can't share a slot either
+                    for (int i = 0; i < j && free; i++) {
+                        free = slot != slots[bucket.get(i)];
+                    }
+                    slots[bucket.get(j)] = slot;
+                }
+                if (free) {
+                    break;
+                }
+            }
+            if (displacement > this.slotMask) {
+                return null;
+            }
+            displacements[b] = displacement;
+            for (int word : bucket) {
+                taken[slots[word]] = true;
+            }
+        }
+        return slots;
+    }
+
+    /**
+     * Returns the token type of the keyword a lexeme is, if it is one.
+     *
+     * @param tokenType the type the DFA matched the lexeme as
+     * @param buffer    the lexeme is buffer[start..end)
+     * @return the token type of the keyword, or {@link Dfa#NO_TOKEN}
+     */
+    public int lookup(int tokenType, char[] buffer, int start, int end) {
+        if (!this.lookedUpTypes[tokenType] || end - start < this.minLength || end - start > this.maxLength) {
+            return Dfa.NO_TOKEN;
+        }
+        long hash = hash(buffer, start, end, this.seed);
+        int slot = slot(hash, this.displacements[bucket(hash)]);
+        char[] keyword = this.keywords[slot];
+        if (keyword == null || keyword.length != end - start) {
+            return Dfa.NO_TOKEN;
+        }
+        for (int i = 0; i < keyword.length; i++) {
+            if (keyword[i] != buffer[start + i]) {
+                return Dfa.NO_TOKEN;
+            }
+        }
+        return this.tokenTypes[slot];
+    }
+
+    /**
+     * @return the seeded FNV-1a hash of the characters, mixed so that all its bits depend on them
+     */
+    private static long hash(char[] chars, int start, int end, long seed) {
+        long h = 0xcbf29ce484222325L ^ (seed * 0x9e3779b97f4a7c15L);
+        for (int i = start; i < end; i++) {
+            h = (h ^ chars[i]) * 0x100000001b3L;
+        }
+        h ^= h >>> 31;
+        h *= 0xbf58476d1ce4e5b9L;
+        return h ^ (h >>> 29);
+    }
+
+    private int bucket(long hash) {
+        return (int) (hash >>> 40) & this.bucketMask;
+    }
+
+    /**
+     * As f2 is odd and the number of slots a power of two, the displacements 0..m-1 of a word go
+     * through all the slots.
+     */
+    private int slot(long hash, int displacement) {
+        int f1 = (int) hash;
+        int f2 = (int) (hash >>> 20) | 1;
+        return (f1 + displacement * f2) & this.slotMask;
+    }
+
+    /**
+     * @return the number of keywords in the table
+     */
+    public int size() {
+        int size = 0;
+        for (char[] keyword : this.keywords) {
+            if (keyword != null) {
+                size++;
+            }
+        }
+        return size;
+    }
+}
@@ -0,0 +1,247 @@
+package LexicalAnalysisGenerator.Analysis;
+
+import LexicalAnalysisGenerator.Automaton.Automaton;
+import LexicalAnalysisGenerator.Automaton.CompiledDfa;
+import LexicalAnalysisGenerator.Automaton.Conversion;
+import LexicalAnalysisGenerator.Automaton.Dfa;
+import LexicalAnalysisGenerator.Automaton.LazyDfa;
+import LexicalAnalysisGenerator.Automaton.Nfa;
+import LexicalAnalysisGenerator.Automaton.PikeVm;
+import LexicalAnalysisGenerator.Automaton.StateLimitExceededException;
+
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class is a compiled lexical analyzer.
+ * It folds the automata of all the tokens into one combined, minimized DFA (minimization keeps
+ * the states of different tokens apart) and keeps that DFA in its {@link CompiledDfa} form, so
+ * that scanning the input never touches the {@link Automaton} maps. When the full DFA would be
+ * too large, the combined NFA can instead be run as a {@link LazyDfa}, whose states are only
+ * built as the input reaches them, or as a {@link PikeVm}. A compiled DFA is immutable and shared by
+ * all the tokenizers, while every tokenizer runs a PikeVm of its own, so an analyzer can be used
+ * from several threads unless it runs a lazy DFA.
+ * Conflicts between tokens are resolved by the order of the token names: when the same
+ * lexeme is matched by several tokens, the one that comes first wins.
+ * The keywords matched by another token (as the identifiers) can be left out of the DFA and
+ * reclassified through a {@link KeywordTable} instead, once a token is matched.
+ */
+public class LexicalAnalyzer {
+    public static final int EOF = -1;
+    public static final int ERROR = -2;
+
+    private final Dfa dfa;
+    private final KeywordTable keywordTable;
+
+    public LexicalAnalyzer(Dfa dfa) {
+        this(dfa, null);
+    }
+
+    /**
+     * @param dfa          the DFA of the tokens
+     * @param keywordTable the keywords the lexemes are reclassified as, or null
+     */
+    public LexicalAnalyzer(Dfa dfa, KeywordTable keywordTable) {
+        this.dfa = dfa;
+        this.keywordTable = keywordTable;
+    }
+
+    /**
+     * Builds a lexical analyzer from the automata produced by the lexical rules parser.
+     *
+     * @param automata   the automata of the rules, keyed by their names
+     * @param tokenNames the names of the tokens ordered from the highest to the lowest priority
+     * @return the lexical analyzer recognizing the given tokens
+     */
+    public static LexicalAnalyzer fromAutomata(Map<String, Automaton> automata, List<String> tokenNames) {
+        return fromAutomata(automata, tokenNames, Conversion.DEFAULT_STATE_LIMIT);
+    }
+
+    /**
+     * Builds a lexical analyzer from the automata produced by the lexical rules parser. If the
+     * combined DFA would have more states than the limit, the combined NFA is run by a
+     * {@link PikeVm} instead, which matches in linear time with memory bounded by the NFA;
+     * {@link #isNfaFallback} tells which one the analyzer runs.
+     *
+     * @param automata   the automata of the rules, keyed by their names
+     * @param tokenNames the names of the tokens ordered from the highest to the lowest priority
+     * @param stateLimit the maximum number of states of the combined DFA
+     * @return the lexical analyzer recognizing the given tokens
+     */
+    public static LexicalAnalyzer fromAutomata(Map<String, Automaton> automata, List<String> tokenNames,
+                                               int stateLimit) {
+        Nfa nfa = combine(automata, tokenNames);
+        try {
+            return new LexicalAnalyzer(new Conversion().convertToCompiledDfa(nfa, tokenNames, stateLimit));
+        } catch (StateLimitExceededException e) {
+            return new LexicalAnalyzer(new PikeVm(nfa, tokenNames));
+        }
+    }
+
+    /**
+     * Builds a lexical analyzer whose DFA leaves keywords out, the lexemes of the other tokens
+     * being looked up in a {@link KeywordTable} of them instead. Every keyword must be matched by
+     * another token, as the parser checks when it reclassifies keywords: the DFA then matches the
+     * same lexemes with or without the keywords, and a keyword comes before the other tokens.
+     *
+     * @param automata   the automata of the tokens other than the keywords, keyed by their names
+     * @param tokenNames the names of all the tokens, keywords included, ordered from the highest to
+     *                   the lowest priority
+     * @param keywords   the words of the keywords left out, keyed by their token names
+     * @return the lexical analyzer recognizing the given tokens
+     */
+    public static LexicalAnalyzer withKeywordTable(Map<String, Automaton> automata, List<String> tokenNames,
+                                                   Map<String, String> keywords) {
+        List<String> dfaTokenNames = new ArrayList<>(tokenNames);
+        dfaTokenNames.removeAll(keywords.keySet());
+        Map<String, Integer> tokenTypes = new LinkedHashMap<>();
+        for (Map.Entry<String, String> keyword : keywords.entrySet()) {
+            tokenTypes.putIfAbsent(keyword.getValue(), tokenNames.indexOf(keyword.getKey()));
+        }
+
+        Nfa nfa = combine(automata, dfaTokenNames);
+        Dfa dfa;
+        try {
+            dfa = new Conversion().convertToCompiledDfa(nfa, tokenNames, Conversion.DEFAULT_STATE_LIMIT);
+        } catch (StateLimitExceededException e) {
+            dfa = new PikeVm(nfa, tokenNames);
+        }
+        return new LexicalAnalyzer(dfa, new KeywordTable(tokenTypes, dfa));
+    }
+
+    /**
+     * Combines the automata of the tokens into one minimized DFA and compiles it, whatever its size.
+     *
+     * @param automata   the automata of the rules, keyed by their names
+     * @param tokenNames the names of the tokens ordered from the highest to the lowest priority
+     * @return the compiled DFA recognizing the given tokens
+     */
+    public static CompiledDfa compile(Map<String, Automaton> automata, List<String> tokenNames) {
+        return new Conversion().convertToCompiledDfa(combine(automata, tokenNames), tokenNames, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Builds a lexical analyzer that runs the combined NFA of the tokens as a lazy DFA, with the
+     * default cache size.
+     *
+     * @param automata   the automata of the rules, keyed by their names
+     * @param tokenNames the names of the tokens ordered from the highest to the lowest priority
+     * @return the lexical analyzer recognizing the given tokens
+     */
+    public static LexicalAnalyzer lazyFromAutomata(Map<String, Automaton> automata, List<String> tokenNames) {
+        return lazyFromAutomata(automata, tokenNames, LazyDfa.DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * Builds a lexical analyzer that runs the combined NFA of the tokens as a lazy DFA, its
+     * states being created as the input reaches them. The lazy DFA and its cache are shared by
+     * the tokenizers, so only one of them at a time can run.
+     *
+     * @param automata   the automata of the rules, keyed by their names
+     * @param tokenNames the names of the tokens ordered from the highest to the lowest priority
+     * @param cacheSize  the memory budget of the DFA state cache in bytes
+     * @return the lexical analyzer recognizing the given tokens
+     */
+    public static LexicalAnalyzer lazyFromAutomata(Map<String, Automaton> automata, List<String> tokenNames,
+                                                   long cacheSize) {
+        return new LexicalAnalyzer(new LazyDfa(combine(automata, tokenNames), tokenNames, cacheSize));
+    }
+
+    /**
+     * Combines the automata of the tokens into one NFA, its accepting states carrying the token names.
+     * An automaton shared by several tokens (as the one of the keywords and punctuation) already
+     * carries their names, it is combined once and keeps them. The automata are flattened into
+     * {@link Nfa} arenas and combined there, the automata themselves are left unchanged.
+     */
+    private static Nfa combine(Map<String, Automaton> automata, List<String> tokenNames) {
+        // the index of every automaton in the list
+        Map<Automaton, Integer> indices = new IdentityHashMap<>();
+        List<Nfa> nfaList = new ArrayList<>(tokenNames.size());
+        List<String> names = new ArrayList<>(tokenNames.size());
+        for (String tokenName : tokenNames) {
+            Automaton a = automata.get(tokenName);
+            if (a == null) {
+                throw new IllegalArgumentException("There is no automaton for the token \"" + tokenName + "\".");
+            }
+            Integer index = indices.get(a);
+            if (index != null) {
+                // a null name leaves the token names of the automaton as they are
+                names.set(index, null);
+            } else {
+                indices.put(a, nfaList.size());
+                nfaList.add(Nfa.fromAutomaton(a));
+                names.add(tokenName);
+            }
+        }
+        for (int i = 0; i < nfaList.size(); i++) {
+            if (names.get(i) != null) {
+                nfaList.get(i).setTokenAll(names.get(i));
+            }
+        }
+        return Nfa.combine(nfaList);
+    }
+
+    /**
+     * Builds a lexical analyzer from a DFA whose accepting states carry the token names.
+     *
+     * @param dfa        the DFA recognizing the tokens
+     * @param tokenNames the names of the tokens, their indices are the token types
+     * @return the lexical analyzer running the given DFA
+     */
+    public static LexicalAnalyzer fromDFA(Automaton dfa, List<String> tokenNames) {
+        return new LexicalAnalyzer(CompiledDfa.fromAutomaton(dfa, tokenNames));
+    }
+
+    public Dfa getDfa() {
+        return this.dfa;
+    }
+
+    /**
+     * @return the DFA a new tokenizer runs: a {@link PikeVm} keeps the threads of the scan in
+     *         itself, so every tokenizer gets a copy of it, the other DFAs are shared
+     */
+    Dfa newEngine() {
+        return (this.dfa instanceof PikeVm) ? ((PikeVm) this.dfa).copy() : this.dfa;
+    }
+
+    /**
+     * @return true if the combined DFA had more states than the limit and the analyzer runs the
+     *         combined NFA with a {@link PikeVm} instead
+     */
+    public boolean isNfaFallback() {
+        return this.dfa instanceof PikeVm;
+    }
+
+    /**
+     * @return the keywords the lexemes are reclassified as, or null
+     */
+    public KeywordTable getKeywordTable() {
+        return this.keywordTable;
+    }
+
+    /**
+     * Returns the name of a token type.
+     *
+     * @param tokenType the token type returned by the tokenizer
+     * @return the token name, or null for EOF and ERROR
+     */
+    public String getTokenName(int tokenType) {
+        return (tokenType < 0) ? null : this.dfa.getTokenName(tokenType);
+    }
+
+    public List<String> getTokenNames() {
+        return this.dfa.getTokenNames();
+    }
+
+    public Tokenizer tokenize(CharSequence input) {
+        return new Tokenizer(this, input);
+    }
+
+    public Tokenizer tokenize(Reader reader) {
+        return new Tokenizer(this, reader);
+    }
+}
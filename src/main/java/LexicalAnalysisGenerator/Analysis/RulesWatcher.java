@@ -0,0 +1,140 @@
+package LexicalAnalysisGenerator.Analysis;
+
+import LexicalAnalysisGenerator.Automaton.Automaton;
+import LexicalAnalysisGenerator.Creation.LexicalRulesParser;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * This class keeps a lexical analyzer up to date with a lexical rules file.
+ * The file is compiled when the watcher is created, then a background thread recompiles it every
+ * time it changes. The parser keeps the automata of the rules from one compilation to the next, so
+ * only the edited rules (and the rules that refer to them) are built again before the tokens are
+ * combined and minimized. A compilation that fails leaves the last analyzer in place. The file is
+ * read as UTF-8, as by the {@link CompilationCache}.
+ */
+public class RulesWatcher implements Closeable {
+    private final Path rulesFile;
+    private final LexicalRulesParser parser;
+    private final Consumer<LexicalAnalyzer> listener;
+    private final WatchService watchService;
+    private final Thread thread;
+
+    private byte[] rules;
+    private volatile LexicalAnalyzer analyzer;
+    private volatile Exception lastError;
+
+    /**
+     * Compiles a rules file and starts watching it.
+     *
+     * @param rulesFile the lexical rules file
+     * @param listener  called with every new analyzer on the watching thread, or null
+     * @throws IOException if the file can't be read or watched
+     */
+    public RulesWatcher(Path rulesFile, Consumer<LexicalAnalyzer> listener) throws IOException {
+        this.rulesFile = rulesFile.toAbsolutePath();
+        this.parser = new LexicalRulesParser();
+        this.listener = listener;
+        this.rules = Files.readAllBytes(this.rulesFile);
+        this.analyzer = compile(this.rules);
+
+        // a file can't be watched, its directory is
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.rulesFile.getParent().register(this.watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY);
+        this.thread = new Thread(this::watch, "rules-watcher " + this.rulesFile.getFileName());
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    private LexicalAnalyzer compile(byte[] rules) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(rules),
+                StandardCharsets.UTF_8));
+        Map<String, Automaton> automata = this.parser.parse(reader);
+        return LexicalAnalyzer.fromAutomata(automata, this.parser.getTokenNames());
+    }
+
+    private void watch() {
+        try {
+            while (true) {
+                WatchKey key = this.watchService.take();
+                boolean changed = false;
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    Object context = event.context();
+                    changed |= context instanceof Path && this.rulesFile.getFileName().equals(context);
+                }
+                key.reset();
+                if (changed) {
+                    reload();
+                }
+            }
+        } catch (InterruptedException | ClosedWatchServiceException e) {
+            // the watcher is closed
+        }
+    }
+
+    /**
+     * Recompiles the rules file if its contents changed. An editor may report several events for
+     * one save, the contents are compared so that the file is only compiled once.
+     */
+    private void reload() {
+        try {
+            byte[] rules = Files.readAllBytes(this.rulesFile);
+            if (Arrays.equals(rules, this.rules)) {
+                return;
+            }
+            this.rules = rules;
+            LexicalAnalyzer analyzer = compile(rules);
+            this.analyzer = analyzer;
+            this.lastError = null;
+            if (this.listener != null) {
+                this.listener.accept(analyzer);
+            }
+        } catch (IOException | RuntimeException e) {
+            this.lastError = e;
+        }
+    }
+
+    /**
+     * @return the analyzer of the last rules that compiled
+     */
+    public LexicalAnalyzer getAnalyzer() {
+        return this.analyzer;
+    }
+
+    /**
+     * @return the error of the last compilation, or null if it succeeded
+     */
+    public Exception getLastError() {
+        return this.lastError;
+    }
+
+    /**
+     * @return the parser of the rules, that tells how many rules the last compilation built
+     */
+    public LexicalRulesParser getParser() {
+        return this.parser;
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.watchService.close();
+        this.thread.interrupt();
+    }
+}
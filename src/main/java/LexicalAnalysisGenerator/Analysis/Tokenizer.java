@@ -0,0 +1,190 @@
+package LexicalAnalysisGenerator.Analysis;
+
+import LexicalAnalysisGenerator.Automaton.Dfa;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * This class splits an input into tokens using a lexical analyzer.
+ * It follows the maximal munch rule: every token is the longest prefix of the remaining input
+ * accepted by the analyzer. White space between tokens is skipped, and a character that starts
+ * no token is reported as a one character ERROR token.
+ * The input is read in a single pass, and scanning does not allocate anything per character;
+ * the lexeme string is only created when it is asked for.
+ * If the analyzer has a keyword table, a token whose lexeme is a keyword becomes that keyword.
+ */
+public class Tokenizer {
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final LexicalAnalyzer analyzer;
+    private final Dfa dfa;
+    private final KeywordTable keywordTable;
+    private final Reader reader;
+    protected char[] buffer;
+    private char[] spare;     // the buffer the next fill moves the token into, or null
+    protected int limit;      // the number of valid characters in the buffer
+    private int position;     // the index of the next character to scan
+    private int offset;       // the input offset of buffer[0]
+
+    protected int tokenType;
+    protected int tokenStart; // the index of the current token in the buffer
+    private int tokenEnd;
+
+    protected Tokenizer(LexicalAnalyzer analyzer, CharSequence input) {
+        this.analyzer = analyzer;
+        this.dfa = analyzer.newEngine();
+        this.keywordTable = analyzer.getKeywordTable();
+        this.reader = null;
+        this.buffer = input.toString().toCharArray();
+        this.limit = this.buffer.length;
+    }
+
+    protected Tokenizer(LexicalAnalyzer analyzer, Reader reader) {
+        this.analyzer = analyzer;
+        this.dfa = analyzer.newEngine();
+        this.keywordTable = analyzer.getKeywordTable();
+        this.reader = reader;
+        this.buffer = new char[BUFFER_SIZE];
+    }
+
+    /**
+     * Scans the next token.
+     *
+     * @return the type of the token, EOF at the end of the input, or ERROR for an unknown character
+     * @throws IOException if reading the input fails
+     */
+    public int nextToken() throws IOException {
+        // Skip the white space before the token
+        while (true) {
+            this.tokenStart = this.position;
+            if (this.position == this.limit && fill() < 0) {
+                this.tokenEnd = this.tokenStart = this.position;
+                return this.tokenType = LexicalAnalyzer.EOF;
+            }
+            if (!Character.isWhitespace(this.buffer[this.position])) {
+                break;
+            }
+            this.position++;
+        }
+
+        this.tokenEnd = this.position = match();
+        if (this.keywordTable != null && this.tokenType >= 0) {
+            int keyword = this.keywordTable.lookup(this.tokenType, this.buffer, this.tokenStart, this.tokenEnd);
+            if (keyword != Dfa.NO_TOKEN) {
+                this.tokenType = keyword;
+            }
+        }
+        return this.tokenType;
+    }
+
+    /**
+     * Runs the DFA from the start of the token as long as it can move, remembering the last
+     * accepting position. A subclass may run its own copy of the DFA instead.
+     *
+     * @return the end of the longest token in the buffer, its type being left in tokenType (ERROR
+     * and a one character token when no token is accepted)
+     * @throws IOException if reading the input fails
+     */
+    protected int match() throws IOException {
+        int state = this.dfa.getStartState();
+        int acceptedToken = LexicalAnalyzer.ERROR;
+        int acceptedEnd = this.tokenStart + 1;
+        int p = this.tokenStart;
+        while (true) {
+            if (p == this.limit) {
+                int shift = fill();
+                if (shift < 0) {
+                    break;
+                }
+                p -= shift;
+                acceptedEnd -= shift;
+            }
+            state = this.dfa.step(state, this.buffer[p]);
+            if (state == Dfa.NO_STATE) {
+                break;
+            }
+            p++;
+            int token = this.dfa.getAcceptToken(state);
+            if (token != Dfa.NO_TOKEN) {
+                acceptedToken = token;
+                acceptedEnd = p;
+            }
+        }
+        this.tokenType = acceptedToken;
+        return acceptedEnd;
+    }
+
+    /**
+     * Reads more input into the buffer. When the buffer is full, the characters before the current
+     * token are discarded by moving the token to the start of the spare buffer (or of a larger one
+     * when the token fills the whole buffer), and the buffers are only swapped once more input has
+     * been read, so that nothing is moved at the end of the input.
+     *
+     * @return the number of characters the buffer content was shifted by, at least one character
+     * having been read, or -1 at the end of the input, the buffer being left unchanged
+     * @throws IOException if reading the input fails
+     */
+    protected int fill() throws IOException {
+        if (this.reader == null) {
+            return -1;
+        }
+        char[] target = this.buffer;
+        int shift = 0;
+        if (this.limit == this.buffer.length) {
+            shift = this.tokenStart;
+            if (shift == 0) {
+                target = new char[this.buffer.length * 2];
+            } else {
+                if (this.spare == null) {
+                    this.spare = new char[this.buffer.length];
+                }
+                target = this.spare;
+            }
+            System.arraycopy(this.buffer, shift, target, 0, this.limit - shift);
+        }
+        int length = this.limit - shift;
+        int read;
+        do {
+            read = this.reader.read(target, length, target.length - length);
+        } while (read == 0);
+        if (read < 0) {
+            return -1;
+        }
+        if (target != this.buffer) {
+            this.spare = (target.length == this.buffer.length) ? this.buffer : null;
+            this.buffer = target;
+        }
+        this.limit = length + read;
+        this.position -= shift;
+        this.tokenStart -= shift;
+        this.offset += shift;
+        return shift;
+    }
+
+    public int getTokenType() {
+        return this.tokenType;
+    }
+
+    public String getTokenName() {
+        return this.analyzer.getTokenName(this.tokenType);
+    }
+
+    /**
+     * @return the offset of the first character of the current token in the input
+     */
+    public int getTokenStart() {
+        return this.offset + this.tokenStart;
+    }
+
+    /**
+     * @return the offset after the last character of the current token in the input
+     */
+    public int getTokenEnd() {
+        return this.offset + this.tokenEnd;
+    }
+
+    public String getLexeme() {
+        return new String(this.buffer, this.tokenStart, this.tokenEnd - this.tokenStart);
+    }
+}
@@ -0,0 +1,90 @@
+package LexicalAnalysisGenerator.Analysis;
+
+import LexicalAnalysisGenerator.Creation.LexicalRulesParser;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Checks that a {@link Tokenizer} reading its input from a Reader, a few characters at a time,
+ * splits it into the same tokens as when it is given the whole input at once, whether the last
+ * token ends the input or not and whether the tokens cross the end of the buffer or not.
+ */
+public class TokenizerTest {
+    private static final String STATEMENTS = "int sum , count ; while (pass != 10)\n{ pass = pass + 1 ;"
+            + " if (mnt >= 2.5E3) mnt = 1.5 ; } 12.e x1y2 @ 3.14 boolean a==b\n";
+
+    public static void main(String[] args) throws Exception {
+        LexicalRulesParser parser = new LexicalRulesParser();
+        LexicalAnalyzer analyzer = LexicalAnalyzer.fromAutomata(parser.parseFile("inputs/lexical_rules.txt"),
+                parser.getTokenNames());
+        Random random = new Random(1);
+        test(analyzer, "int x = 1;\nwhile (x) x = x + abc", random);
+        test(analyzer, "abc", random);
+        test(analyzer, "", random);
+        StringBuilder input = new StringBuilder();
+        while (input.length() < 3 * (1 << 16)) {
+            input.append(STATEMENTS);
+        }
+        // inputs ending around the size of the buffer and of its multiples, in and out of a token
+        for (int length : new int[]{(1 << 16) - 1, 1 << 16, (1 << 16) + 1, 2 * (1 << 16) + 7, input.length() - 1}) {
+            test(analyzer, input.substring(0, length), random);
+        }
+        // a token longer than the buffer
+        StringBuilder identifier = new StringBuilder("x");
+        while (identifier.length() < 3 * (1 << 16)) {
+            identifier.append("y1");
+        }
+        test(analyzer, "int " + identifier, random);
+        System.out.println("OK");
+    }
+
+    private static void test(LexicalAnalyzer analyzer, String input, Random random) throws IOException {
+        List<String> expected = tokens(analyzer.tokenize(input));
+        List<String> actual = tokens(analyzer.tokenize(new ChunkedReader(input, random)));
+        if (!actual.equals(expected)) {
+            throw new AssertionError("A Reader of " + input.length() + " characters gave "
+                    + actual.size() + " tokens, expected " + expected.size());
+        }
+    }
+
+    static List<String> tokens(Tokenizer tokenizer) throws IOException {
+        List<String> tokens = new ArrayList<>();
+        while (tokenizer.nextToken() != LexicalAnalyzer.EOF) {
+            tokens.add(tokenizer.getTokenType() + ":" + tokenizer.getLexeme() + "@" + tokenizer.getTokenStart());
+        }
+        return tokens;
+    }
+
+    /**
+     * A Reader returning one to three characters of a string at a time.
+     */
+    public static class ChunkedReader extends Reader {
+        private final String input;
+        private final Random random;
+        private int position;
+
+        public ChunkedReader(String input, Random random) {
+            this.input = input;
+            this.random = random;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) {
+            if (this.position == this.input.length()) {
+                return -1;
+            }
+            int count = Math.min(Math.min(length, 1 + this.random.nextInt(3)), this.input.length() - this.position);
+            this.input.getChars(this.position, this.position + count, buffer, offset);
+            this.position += count;
+            return count;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package LexicalAnalysisGenerator.Automaton;
+
+import java.util.*;
+
+/**
+ * This class handles the transition symbols that stand for a range of characters.
+ * A single character is labelled by itself ("a"), and a range of characters is labelled by its
+ * first and last characters around a dash ("a-z"), so a range covering the whole char set is
+ * one edge instead of 65,536 of them. Since the labels of single characters are one character
+ * long, a three character label with a dash in the middle is always a range.
+ */
+public class CharRange {
+    public static final char SEPARATOR = '-';
+
+    private CharRange() {}
+
+    /**
+     * @return the label of the characters from..to
+     */
+    public static String symbol(char from, char to) {
+        if (from > to) {
+            throw new IllegalArgumentException("Invalid range " + from + SEPARATOR + to + ".");
+        }
+        return (from == to) ? String.valueOf(from) : new String(new char[]{from, SEPARATOR, to});
+    }
+
+    public static boolean isRange(String symbol) {
+        return symbol.length() == 3 && symbol.charAt(1) == SEPARATOR;
+    }
+
+    /**
+     * @return true if the symbol labels characters (a single character or a range), and it is not
+     * the epsilon symbol
+     */
+    public static boolean isCharSymbol(String symbol, String epsilonSymbol) {
+        return (symbol.length() == 1 || isRange(symbol)) && !symbol.equals(epsilonSymbol);
+    }
+
+    public static char from(String symbol) {
+        return symbol.charAt(0);
+    }
+
+    public static char to(String symbol) {
+        return isRange(symbol) ? symbol.charAt(2) : symbol.charAt(0);
+    }
+
+    public static boolean contains(String symbol, char c) {
+        return from(symbol) <= c && c <= to(symbol);
+    }
+
+    /**
+     * Splits the character symbols into sorted, disjoint elementary ranges, such that every symbol
+     * is a union of some of them. Symbols that don't label characters (epsilon) are ignored.
+     *
+     * @param symbols       the symbols, they may overlap each other
+     * @param epsilonSymbol the epsilon symbol
+     * @return every elementary range mapped to the symbols that contain it, sorted by the ranges
+     */
+    public static LinkedHashMap<String, List<String>> partition(Collection<String> symbols, String epsilonSymbol) {
+        TreeSet<Integer> boundaries = new TreeSet<>();
+        List<String> charSymbols = new ArrayList<>();
+        for (String symbol : symbols) {
+            if (isCharSymbol(symbol, epsilonSymbol)) {
+                charSymbols.add(symbol);
+                boundaries.add((int) from(symbol));
+                boundaries.add(to(symbol) + 1);
+            }
+        }
+
+        // Every two consecutive boundaries delimit a candidate elementary range
+        int[] starts = new int[boundaries.size()];
+        int n = 0;
+        for (int boundary : boundaries) {
+            starts[n++] = boundary;
+        }
+        List<List<String>> containing = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            containing.add(new ArrayList<>());
+        }
+        for (String symbol : charSymbols) {
+            int i = Arrays.binarySearch(starts, 0, n, from(symbol));
+            while (i < n - 1 && starts[i + 1] - 1 <= to(symbol)) {
+                containing.get(i++).add(symbol);
+            }
+        }
+
+        LinkedHashMap<String, List<String>> elementary = new LinkedHashMap<>();
+        for (int i = 0; i < n - 1; i++) {
+            if (!containing.get(i).isEmpty()) {
+                elementary.put(symbol((char) starts[i], (char) (starts[i + 1] - 1)), containing.get(i));
+            }
+        }
+        return elementary;
+    }
+}
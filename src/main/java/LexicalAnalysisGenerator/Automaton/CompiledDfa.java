@@ -0,0 +1,372 @@
+package LexicalAnalysisGenerator.Automaton;
+
+import java.util.*;
+
+/**
+ * This class is a frozen, array based form of a DFA.
+ * The states are numbered 0..n-1 (the start state is 0), and the transitions are kept in one flat
+ * next-state table, so a step is a couple of array loads with no hashing or allocation.
+ * The table is not indexed by the input symbols themselves but by their equivalence classes:
+ * two symbols are in the same class when every state moves on them to the same next state, so
+ * a range such as a-z that is used as a whole takes one column instead of 26.
+ * Class 0 holds the characters that have no transition at all (those outside the alphabet too).
+ */
+public class CompiledDfa implements Dfa {
+    private final String[] tokenNames;
+    private final int stateCount;
+    private final int classCount;
+    // The class of every character, the characters after the end of the array are in class 0.
+    private final char[] classMap;
+    // table[state * classCount + class] is the next state, or NO_STATE.
+    private final int[] table;
+    // The token accepted in every state, or NO_TOKEN if the state is not accepting.
+    private final int[] acceptTokens;
+
+    public CompiledDfa(String[] tokenNames, int stateCount, int classCount, char[] classMap, int[] table,
+                       int[] acceptTokens) {
+        if (table.length != stateCount * classCount || acceptTokens.length != stateCount) {
+            throw new IllegalArgumentException("The table sizes don't match the state and class counts.");
+        }
+        this.tokenNames = tokenNames;
+        this.stateCount = stateCount;
+        this.classCount = classCount;
+        this.classMap = classMap;
+        this.table = table;
+        this.acceptTokens = acceptTokens;
+    }
+
+    /**
+     * Compiles a DFA whose accepting states carry token names.
+     * Dead states (that can never reach an accepting state) are dropped, so that a scanner stops
+     * as soon as it would enter one.
+     *
+     * @param dfa        the DFA to compile, usually a minimized one
+     * @param tokenNames the names of the tokens, their indices are the token types
+     * @return the compiled DFA
+     */
+    public static CompiledDfa fromAutomaton(Automaton dfa, List<String> tokenNames) {
+        Map<String, Integer> tokenTypes = new HashMap<>();
+        for (int i = 0; i < tokenNames.size(); i++) {
+            tokenTypes.putIfAbsent(tokenNames.get(i), i);
+        }
+
+        // Collect the edges of every state. The states of an automaton may be renumbered after
+        // being hashed, so the transitions are only iterated here and never looked up.
+        Map<State, Map<String, State>> edges = new HashMap<>();
+        Map<State, Set<State>> predecessors = new HashMap<>();
+        for (Map.Entry<Pair<State, String>, HashSet<State>> entry : dfa.getTransitions().entrySet()) {
+            String symbol = entry.getKey().getSecond();
+            if (!CharRange.isCharSymbol(symbol, dfa.getEpsilonSymbol())) {
+                continue;
+            }
+            State from = entry.getKey().getFirst();
+            for (State to : entry.getValue()) {
+                edges.computeIfAbsent(from, k -> new HashMap<>()).put(symbol, to);
+                predecessors.computeIfAbsent(to, k -> new HashSet<>()).add(from);
+            }
+        }
+
+        // Find the live states, then number them in depth first order from the start state.
+        Set<State> live = new HashSet<>();
+        Deque<State> stack = new ArrayDeque<>(dfa.getAccepting());
+        while (!stack.isEmpty()) {
+            State state = stack.pop();
+            if (live.add(state)) {
+                stack.addAll(predecessors.getOrDefault(state, Collections.emptySet()));
+            }
+        }
+        Map<State, Integer> numbers = new HashMap<>();
+        List<State> ordered = new ArrayList<>();
+        stack.push(dfa.getStart());
+        while (!stack.isEmpty()) {
+            State state = stack.pop();
+            if (!live.contains(state) || numbers.containsKey(state)) {
+                continue;
+            }
+            numbers.put(state, ordered.size());
+            ordered.add(state);
+            stack.addAll(edges.getOrDefault(state, Collections.emptyMap()).values());
+        }
+
+        // Build the next-state row of every state over the disjoint elementary ranges of the
+        // symbols, index 0 standing for all the characters outside the alphabet.
+        HashSet<String> labels = new HashSet<>();
+        for (Map<String, State> stateEdges : edges.values()) {
+            labels.addAll(stateEdges.keySet());
+        }
+        LinkedHashMap<String, List<String>> elementarySymbols = CharRange.partition(labels, dfa.getEpsilonSymbol());
+        List<String> symbols = new ArrayList<>(elementarySymbols.size() + 1);
+        symbols.add(null);
+        symbols.addAll(elementarySymbols.keySet());
+        int symbolCount = symbols.size();
+        Map<String, List<Integer>> symbolIndices = new HashMap<>();
+        for (int i = 1; i < symbolCount; i++) {
+            for (String label : elementarySymbols.get(symbols.get(i))) {
+                symbolIndices.computeIfAbsent(label, k -> new ArrayList<>()).add(i);
+            }
+        }
+
+        int stateCount = Math.max(ordered.size(), 1);
+        int[][] rows = new int[stateCount][symbolCount];
+        int[] acceptTokens = new int[stateCount];
+        for (int[] row : rows) {
+            Arrays.fill(row, NO_STATE);
+        }
+        Arrays.fill(acceptTokens, NO_TOKEN);
+        for (State state : ordered) {
+            int number = numbers.get(state);
+            for (Map.Entry<String, State> edge : edges.getOrDefault(state, Collections.emptyMap()).entrySet()) {
+                Integer target = numbers.get(edge.getValue());
+                if (target != null) {
+                    for (int i : symbolIndices.get(edge.getKey())) {
+                        rows[number][i] = target;
+                    }
+                }
+            }
+            if (state.isAccepting()) {
+                acceptTokens[number] = tokenTypes.getOrDefault(state.getTokenName(), NO_TOKEN);
+            }
+        }
+
+        return fromRows(tokenNames, symbols, rows, acceptTokens);
+    }
+
+    /**
+     * Compiles a DFA given as a next-state table over disjoint elementary ranges, as the subset
+     * construction builds it. Dead states are dropped, like in {@link #fromAutomaton}.
+     *
+     * @param tokenNames   the names of the tokens, their indices are the token types
+     * @param symbols      the elementary ranges, sorted
+     * @param stateCount   the number of states, the start state being 0
+     * @param delta        delta[s * symbols.size() + a] is the state reached from s on a, or NO_STATE
+     * @param acceptTokens the token accepted in every state, or NO_TOKEN
+     * @return the compiled DFA
+     */
+    public static CompiledDfa fromTable(List<String> tokenNames, List<String> symbols, int stateCount, int[] delta,
+                                        int[] acceptTokens) {
+        int k = symbols.size();
+        // Find the live states through the inverse transitions, counted first
+        int[] predecessorStart = new int[stateCount + 1];
+        for (int target : delta) {
+            if (target != NO_STATE) {
+                predecessorStart[target + 1]++;
+            }
+        }
+        for (int s = 0; s < stateCount; s++) {
+            predecessorStart[s + 1] += predecessorStart[s];
+        }
+        int[] predecessors = new int[predecessorStart[stateCount]];
+        int[] fill = Arrays.copyOf(predecessorStart, stateCount);
+        for (int s = 0; s < stateCount; s++) {
+            for (int a = 0; a < k; a++) {
+                int target = delta[s * k + a];
+                if (target != NO_STATE) {
+                    predecessors[fill[target]++] = s;
+                }
+            }
+        }
+        boolean[] live = new boolean[stateCount];
+        int[] stack = new int[stateCount + delta.length];
+        int size = 0;
+        for (int s = 0; s < stateCount; s++) {
+            if (acceptTokens[s] != NO_TOKEN) {
+                live[s] = true;
+                stack[size++] = s;
+            }
+        }
+        while (size > 0) {
+            int s = stack[--size];
+            for (int i = predecessorStart[s]; i < predecessorStart[s + 1]; i++) {
+                if (!live[predecessors[i]]) {
+                    live[predecessors[i]] = true;
+                    stack[size++] = predecessors[i];
+                }
+            }
+        }
+
+        // Number the live states in depth first order from the start state
+        int[] numbers = new int[stateCount];
+        Arrays.fill(numbers, NO_STATE);
+        int[] ordered = new int[stateCount];
+        int count = 0;
+        if (stateCount > 0) {
+            stack[size++] = 0;
+        }
+        while (size > 0) {
+            int s = stack[--size];
+            if (!live[s] || numbers[s] != NO_STATE) {
+                continue;
+            }
+            numbers[s] = count;
+            ordered[count++] = s;
+            for (int a = 0; a < k; a++) {
+                if (delta[s * k + a] != NO_STATE) {
+                    stack[size++] = delta[s * k + a];
+                }
+            }
+        }
+
+        List<String> rowSymbols = new ArrayList<>(k + 1);
+        rowSymbols.add(null);
+        rowSymbols.addAll(symbols);
+        int rowCount = Math.max(count, 1);
+        int[][] rows = new int[rowCount][k + 1];
+        int[] rowAcceptTokens = new int[rowCount];
+        for (int[] row : rows) {
+            Arrays.fill(row, NO_STATE);
+        }
+        Arrays.fill(rowAcceptTokens, NO_TOKEN);
+        for (int number = 0; number < count; number++) {
+            int s = ordered[number];
+            for (int a = 0; a < k; a++) {
+                int target = delta[s * k + a];
+                rows[number][a + 1] = (target == NO_STATE) ? NO_STATE : numbers[target];
+            }
+            rowAcceptTokens[number] = acceptTokens[s];
+        }
+        return fromRows(tokenNames, rowSymbols, rows, rowAcceptTokens);
+    }
+
+    /**
+     * Builds the class map and the table of a DFA from the rows of its states.
+     *
+     * @param symbols the disjoint elementary ranges the rows are indexed by, the first one (null)
+     *                standing for all the characters outside the alphabet
+     */
+    private static CompiledDfa fromRows(List<String> tokenNames, List<String> symbols, int[][] rows,
+                                        int[] acceptTokens) {
+        int stateCount = rows.length;
+        int symbolCount = symbols.size();
+        // Partition the symbols into equivalence classes, then keep one column per class.
+        int[] symbolClasses = equivalenceClasses(rows, symbolCount);
+        int classCount = 0;
+        for (int symbolClass : symbolClasses) {
+            classCount = Math.max(classCount, symbolClass + 1);
+        }
+        char[] classMap = new char[(symbolCount == 1) ? 0 : CharRange.to(symbols.get(symbolCount - 1)) + 1];
+        for (int i = 1; i < symbolCount; i++) {
+            Arrays.fill(classMap, CharRange.from(symbols.get(i)), CharRange.to(symbols.get(i)) + 1,
+                    (char) symbolClasses[i]);
+        }
+        int[] table = new int[stateCount * classCount];
+        for (int state = 0; state < stateCount; state++) {
+            for (int i = 0; i < symbolCount; i++) {
+                table[state * classCount + symbolClasses[i]] = rows[state][i];
+            }
+        }
+
+        return new CompiledDfa(tokenNames.toArray(new String[0]), stateCount, classCount, classMap, table,
+                acceptTokens);
+    }
+
+    /**
+     * Partitions the symbols into classes of symbols that have the same next state in every state.
+     * It starts with all the symbols in one class, then splits the classes by the next states of
+     * one state after the other. The classes are numbered in the order of their first symbol, so
+     * the symbol 0 (the characters outside the alphabet) is always in class 0.
+     *
+     * @param rows        the next states of every state over the symbols
+     * @param symbolCount the number of symbols
+     * @return the class of every symbol
+     */
+    private static int[] equivalenceClasses(int[][] rows, int symbolCount) {
+        int[] classes = new int[symbolCount];
+        for (int[] row : rows) {
+            Map<Long, Integer> refined = new HashMap<>();
+            for (int i = 0; i < symbolCount; i++) {
+                long key = ((long) classes[i] << 32) | (row[i] & 0xFFFFFFFFL);
+                Integer newClass = refined.get(key);
+                if (newClass == null) {
+                    newClass = refined.size();
+                    refined.put(key, newClass);
+                }
+                classes[i] = newClass;
+            }
+        }
+        return classes;
+    }
+
+    /**
+     * Returns the state reached from the given state on the given character.
+     *
+     * @return the next state, or NO_STATE if there is no transition
+     */
+    @Override
+    public int step(int state, char c) {
+        int symbolClass = (c < this.classMap.length) ? this.classMap[c] : 0;
+        return this.table[state * this.classCount + symbolClass];
+    }
+
+    /**
+     * @return the state reached from the given state on the characters of a class, or NO_STATE
+     */
+    public int getNextState(int state, int symbolClass) {
+        return this.table[state * this.classCount + symbolClass];
+    }
+
+    @Override
+    public int getStartState() {
+        return 0;
+    }
+
+    /**
+     * @return the token accepted in the given state, or NO_TOKEN if the state is not accepting
+     */
+    @Override
+    public int getAcceptToken(int state) {
+        return this.acceptTokens[state];
+    }
+
+    @Override
+    public String getTokenName(int tokenType) {
+        return this.tokenNames[tokenType];
+    }
+
+    @Override
+    public List<String> getTokenNames() {
+        return Collections.unmodifiableList(Arrays.asList(this.tokenNames));
+    }
+
+    public int getStateCount() {
+        return this.stateCount;
+    }
+
+    public int getClassCount() {
+        return this.classCount;
+    }
+
+    /**
+     * @return the class of the given character
+     */
+    public int getSymbolClass(char c) {
+        return (c < this.classMap.length) ? this.classMap[c] : 0;
+    }
+
+    /**
+     * @return a copy of the class map, the characters after its end are in class 0
+     */
+    public char[] getClassMap() {
+        return this.classMap.clone();
+    }
+
+    /**
+     * @return a copy of the next-state table, indexed by state * classCount + class
+     */
+    public int[] getTable() {
+        return this.table.clone();
+    }
+
+    /**
+     * @return a copy of the tokens accepted in every state
+     */
+    public int[] getAcceptTokens() {
+        return this.acceptTokens.clone();
+    }
+
+    /**
+     * @return the size of the transition table in bytes, without the class map
+     */
+    public long getTableSize() {
+        return (long) this.table.length * Integer.BYTES;
+    }
+}
@@ -5,45 +5,37 @@ import java.util.*;
 /**
  * This class provides methods for converting automata.
  * It includes methods for converting epsilon-NFAs to NFAs and NFAs to DFAs.
+ * It keeps no state between calls, so one instance can be used by several threads at once.
  */
 public class Conversion {
-    private final HashMap<State, HashSet<State>> epsilonClosures;
-    private Integer counter;
+    /**
+     * The number of DFA states a lexer is allowed to have before it falls back to running its NFA.
+     */
+    public static final int DEFAULT_STATE_LIMIT = 10_000;
+
     private final Utilities utilities;
 
     /**
      * Constructs a new Conversion object.
      */
     public Conversion() {
-        this.epsilonClosures = new HashMap<>();
-        this.counter = 0;
         this.utilities = new Utilities();
     }
 
-    /**
-     * Prepares the Conversion object for a new automaton.
-     * This method should be called before starting to work with a new automaton.
-     *
-     * @param a the new automaton
-     */
-    public void prepareForAutomaton(Automaton a) {
-        epsilonClosures.clear();
-        this.counter = a.getStates().size() + 1;
-    }
-
     /**
      * Computes the epsilon-closure of a state in an automaton.
      * The epsilon-closure of a state is the set of states that can be reached
      * from the state by following epsilon-transitions.
      * it uses the depth first search algorithm.
      *
-     * @param a     the automaton
-     * @param state the state
+     * @param a        the automaton
+     * @param state    the state
+     * @param closures the closures already computed in the automaton
      * @return the epsilon-closure of the state
      */
-    private HashSet<State> epsilonClosure(Automaton a, State state) {
-        if (epsilonClosures.containsKey(state)) {
-            return epsilonClosures.get(state);
+    private HashSet<State> epsilonClosure(Automaton a, State state, HashMap<State, HashSet<State>> closures) {
+        if (closures.containsKey(state)) {
+            return closures.get(state);
         }
         HashSet<State> epsilonClosure = new HashSet<>();
         Stack<State> stack = new Stack<>();
@@ -59,7 +51,7 @@ public class Conversion {
                 }
             }
         }
-        epsilonClosures.put(state, epsilonClosure);
+        closures.put(state, epsilonClosure);
         return epsilonClosure;
     }
 
@@ -96,13 +88,13 @@ public class Conversion {
 
         // now we work on the transitions, and add new accepting states
 
-        this.prepareForAutomaton(a);
+        HashMap<State, HashSet<State>> closures = new HashMap<>();
         // For each state and each alphabet, compute the set of reachable states
         for (State state : a.getStates()) {
             for (String alphabet : a.getAlphabets()) {
                 if (!alphabet.equals(a.getEpsilonSymbol())) {
                     // x = epsilon_closure(state)
-                    HashSet<State> x = epsilonClosure(a, state);
+                    HashSet<State> x = epsilonClosure(a, state, closures);
                     // update accepting
                     // every state able to reach an accepting state using epsilon transitions, it is
                     // accepting.
@@ -121,7 +113,7 @@ public class Conversion {
                     // z = epsilon_closure(y)
                     HashSet<State> z = new HashSet<>();
                     for (State s : y) {
-                        z.addAll(epsilonClosure(a, s));
+                        z.addAll(epsilonClosure(a, s, closures));
                     }
                     // δ'(state, alphabet) = [z]
                     nfa.addTransitions(state, alphabet, z);
@@ -139,232 +131,574 @@ public class Conversion {
      * @return a new automaton that is the DFA equivalent of the input NFA
      */
     public Automaton convertToDFA(Automaton automaton) {
-        // create a copy of this
-        Automaton a = utilities.copyAutomaton(automaton);
+        return convertToDFA(automaton, null);
+    }
 
-        // Create a new automaton
-        Automaton dfa = new Automaton();
+    /**
+     * Transforms an NFA to a DFA, resolving conflicts between accepting states by rule order.
+     * When a DFA state contains accepting NFA states of several tokens, it accepts the token
+     * that comes first in the given priority list (tokens missing from the list come last).
+     * <p>
+     * The NFA states are numbered, and every set of them is a long[] bitset with a 64-bit
+     * fingerprint, interned in an open addressing table. The epsilon-closure of an NFA state is
+     * computed once as a bitset, the first time a transition reaches it.
+     *
+     * @param automaton     the NFA to transform
+     * @param tokenPriority the token names ordered from highest to lowest priority, or null
+     * @return a new automaton that is the DFA equivalent of the input NFA
+     */
+    public Automaton convertToDFA(Automaton automaton, List<String> tokenPriority) {
+        return convertToDFA(automaton, tokenPriority, Integer.MAX_VALUE);
+    }
 
-        // Copy the alphabets and epsilon symbol
-        dfa.getAlphabets().addAll(a.getAlphabets());
-        dfa.setEpsilonSymbol(a.getEpsilonSymbol());
+    /**
+     * Transforms an NFA to a DFA like {@link #convertToDFA(Automaton, List)}, giving up when the
+     * DFA grows past a number of states, so that a rule set whose subset construction explodes
+     * can't exhaust the memory.
+     *
+     * @param automaton     the NFA to transform
+     * @param tokenPriority the token names ordered from highest to lowest priority, or null
+     * @param stateLimit    the maximum number of DFA states
+     * @return a new automaton that is the DFA equivalent of the input NFA
+     * @throws StateLimitExceededException if the DFA has more than stateLimit states
+     */
+    public Automaton convertToDFA(Automaton automaton, List<String> tokenPriority, int stateLimit) {
+        NfaTable nfa = new NfaTable(automaton, tokenPriority);
+        List<String> symbols = nfa.symbols;
+        List<long[]> dfaSets = new ArrayList<>();
+        List<int[]> dfaTransitions = subsetConstruction(nfa, stateLimit, dfaSets);
 
-        HashMap<HashSet<State>, State> dfaStates = new HashMap<>();
-        Queue<HashSet<State>> queue = new LinkedList<>();
+        // Create the DFA
+        Automaton dfa = new Automaton();
+        dfa.getAlphabets().addAll(symbols);
+        dfa.setEpsilonSymbol(automaton.getEpsilonSymbol());
+        State[] dfaStates = new State[dfaSets.size()];
+        for (int i = 0; i < dfaStates.length; i++) {
+            dfaStates[i] = new State(i, false, null);
+            int preferred = nfa.preferredAccepting(dfaSets.get(i));
+            if (preferred >= 0) {
+                dfaStates[i].setAccepting(true);
+                dfaStates[i].setTokenName(nfa.tokenNames[preferred]);
+                dfa.getAccepting().add(dfaStates[i]);
+            }
+            dfa.addState(dfaStates[i]);
+        }
+        dfa.setStart(dfaStates[0]);
+        for (int i = 0; i < dfaStates.length; i++) {
+            int[] row = dfaTransitions.get(i);
+            for (int symbol = 0; symbol < row.length; symbol++) {
+                dfa.getTransitions().put(new Pair<>(dfaStates[i], symbols.get(symbol)),
+                        new HashSet<>(Collections.singletonList(dfaStates[row[symbol]])));
+            }
+        }
 
-        prepareForAutomaton(a);
+        return dfa;
+    }
 
-        // Compute the epsilon closure of the start state
-        HashSet<State> startSet = epsilonClosure(a, a.getStart());
-        // System.out.println("start set: " + startSet.toString());
-        queue.add(startSet);
-        boolean startIsSet = false;
+    /**
+     * Transforms the combined NFA of the tokens into a minimized, compiled DFA. It is the same as
+     * {@link #convertToDFA(Automaton, List, int)}, {@link #minimizeDFA} and
+     * {@link CompiledDfa#fromAutomaton} in a row, but the DFA is only ever kept in int arrays:
+     * no {@link State}, {@link Pair} or symbol string is created for its states and transitions.
+     *
+     * @param nfa        the NFA, its accepting states carrying the token names
+     * @param tokenNames the names of the tokens ordered from the highest to the lowest priority,
+     *                   their indices are the token types
+     * @param stateLimit the maximum number of DFA states before minimization
+     * @return the compiled DFA recognizing the tokens
+     * @throws StateLimitExceededException if the DFA has more than stateLimit states
+     */
+    public CompiledDfa convertToCompiledDfa(Nfa nfa, List<String> tokenNames, int stateLimit) {
+        NfaTable table = new NfaTable(nfa, tokenNames);
+        List<long[]> dfaSets = new ArrayList<>();
+        List<int[]> rows = subsetConstruction(table, stateLimit, dfaSets);
+        int n = rows.size();
+        int k = table.symbols.size();
+        HashMap<String, Integer> tokenTypes = new HashMap<>();
+        for (int i = 0; i < tokenNames.size(); i++) {
+            tokenTypes.putIfAbsent(tokenNames.get(i), i);
+        }
 
-        while (!queue.isEmpty()) {
-            HashSet<State> currentSet = queue.remove();
-            State dfaState = getDFAState(currentSet, dfaStates);
-            if (dfaState == null) {
-                dfaState = createDFAState(currentSet, a, dfa);
-                dfaStates.put(currentSet, dfaState);
-            }
-            // make dfaState a part of the dfa states not the automaton
-            if (!startIsSet && currentSet.contains(a.getStart())) {
-                dfa.setStart(dfaState);
-                startIsSet = true;
-                // that mean that the dfa will have its start state set one time only, and that
-                // is for the correct state
+        // The complete transition table, with the sink n, and the initial partition: the
+        // non-accepting states in group 0 and the states accepting token t in group t + 1
+        int sink = n;
+        int[] delta = new int[(n + 1) * k];
+        Arrays.fill(delta, n * k, delta.length, sink);
+        int[] acceptTokens = new int[n];
+        int[] initialGroups = new int[n + 1];
+        for (int s = 0; s < n; s++) {
+            System.arraycopy(rows.get(s), 0, delta, s * k, k);
+            int preferred = table.preferredAccepting(dfaSets.get(s));
+            acceptTokens[s] = (preferred < 0) ? Dfa.NO_TOKEN
+                    : tokenTypes.getOrDefault(table.tokenNames[preferred], Dfa.NO_TOKEN);
+            initialGroups[s] = acceptTokens[s] + 1;
+        }
+        Partition partition = refine(delta, k, initialGroups, tokenNames.size() + 1);
+
+        List<Integer> representatives = new ArrayList<>();
+        int[] groupNumbers = numberGroups(partition, delta, k, sink, representatives);
+        int m = representatives.size();
+        int[] minimized = new int[m * k];
+        int[] minimizedAcceptTokens = new int[m];
+        for (int i = 0; i < m; i++) {
+            int s = representatives.get(i);
+            minimizedAcceptTokens[i] = (s == sink) ? Dfa.NO_TOKEN : acceptTokens[s];
+            for (int a = 0; a < k; a++) {
+                minimized[i * k + a] = groupNumbers[partition.groupOf(delta[s * k + a])];
             }
-            // now we have a new state that needs to be added to the automaton
+        }
+        return CompiledDfa.fromTable(tokenNames, table.symbols, m, minimized, minimizedAcceptTokens);
+    }
 
-            for (String alphabet : a.getAlphabets()) {
-                if (!alphabet.equals(a.getEpsilonSymbol())) {
-                    // get the set reachable from dfaState(currentState) using alphabet
-                    HashSet<State> nextSet = new HashSet<>();
-                    for (State state : currentSet) { // currentSet is already an epsilon closure
-                        nextSet.addAll(a.getNextStates(state, alphabet));
-                    }
-                    HashSet<State> epsilonClosureSet = new HashSet<>();// Compute the epsilon closure of the next states
-                    for (State state : nextSet) {
-                        epsilonClosureSet.addAll(epsilonClosure(a, state));
+    /**
+     * The subset construction, the DFA states are numbered in the order they are found, the start
+     * state being 0.
+     *
+     * @param nfa        the flattened NFA
+     * @param stateLimit the maximum number of DFA states
+     * @param dfaSets    receives the set of NFA states of every DFA state
+     * @return the next state of every DFA state on every elementary symbol, the empty set being a
+     * state too
+     * @throws StateLimitExceededException if the DFA has more than stateLimit states
+     */
+    private List<int[]> subsetConstruction(NfaTable nfa, int stateLimit, List<long[]> dfaSets) {
+        List<String> symbols = nfa.symbols;
+        int[][] moves = nfa.moves;
+        int[][] epsilonMoves = nfa.epsilonMoves;
+        int n = nfa.stateCount;
+        int words = nfa.words;
+        long[][] closures = new long[n][];
+        StateSetTable table = new StateSetTable();
+        List<int[]> dfaTransitions = new ArrayList<>();
+        long[] startSet = new long[words];
+        orClosure(startSet, nfa.start, closures, epsilonMoves, words);
+        table.intern(startSet, dfaSets);
+
+        long[][] targets = new long[symbols.size()][words];
+        boolean[] touched = new boolean[symbols.size()];
+        int deadState = -1;
+        for (int current = 0; current < dfaSets.size(); current++) {
+            if (dfaSets.size() > stateLimit) {
+                throw new StateLimitExceededException(stateLimit);
+            }
+            long[] currentSet = dfaSets.get(current);
+            // collect the targets of the moves of the current set on every symbol
+            for (int word = 0; word < words; word++) {
+                for (long bits = currentSet[word]; bits != 0; bits &= bits - 1) {
+                    int[] stateMoves = moves[(word << 6) + Long.numberOfTrailingZeros(bits)];
+                    for (int i = 0; i < stateMoves.length; i += 2) {
+                        targets[stateMoves[i]][stateMoves[i + 1] >>> 6] |= 1L << stateMoves[i + 1];
+                        touched[stateMoves[i]] = true;
                     }
-                    // compute the next state from the ε-closure set calculated above.
-                    State nextState;
-                    if (epsilonClosures.isEmpty()) { // meaning that next state is a dead state
-                        nextState = getDFAState(epsilonClosureSet, dfaStates);
-                        if (nextState == null) {
-                            nextState = createDeadState(dfa);
-                        }
-                    } else {
-                        nextState = getDFAState(epsilonClosureSet, dfaStates);
-                        if (nextState == null) {
-                            nextState = createDFAState(epsilonClosureSet, a, dfa);
-                        }
+                }
+            }
+            int[] row = new int[symbols.size()];
+            for (int symbol = 0; symbol < symbols.size(); symbol++) {
+                if (!touched[symbol]) {
+                    // no move on this symbol, it goes to the (shared) empty set
+                    if (deadState < 0) {
+                        deadState = table.intern(new long[words], dfaSets);
                     }
-                    // nextState calculated and dfa adjusted to accommodate it, then add the transition
-                    // currentState(dfaState) --alphabet--> nextState
-                    dfa.addTransitions(dfaState, alphabet, new HashSet<>(Collections.singletonList(nextState)));
-                    // keep the following code in its order
-                    if (!dfaStates.containsKey(epsilonClosureSet)) {
-                        queue.add(epsilonClosureSet);
+                    row[symbol] = deadState;
+                    continue;
+                }
+                // the next set is the union of the epsilon-closures of the targets
+                long[] nextSet = new long[words];
+                long[] symbolTargets = targets[symbol];
+                for (int word = 0; word < words; word++) {
+                    for (long bits = symbolTargets[word]; bits != 0; bits &= bits - 1) {
+                        orClosure(nextSet, (word << 6) + Long.numberOfTrailingZeros(bits), closures,
+                                epsilonMoves, words);
                     }
-                    dfaStates.put(epsilonClosureSet, nextState);
                 }
+                Arrays.fill(symbolTargets, 0L);
+                touched[symbol] = false;
+                row[symbol] = table.intern(nextSet, dfaSets);
             }
-
+            dfaTransitions.add(row);
         }
-
-        dfa.giveNewIdsAll(dfa.getStates(), true);
-
-        return dfa;
+        return dfaTransitions;
     }
 
-    private State createDFAState(HashSet<State> stateSet, Automaton a, Automaton dfa) {
-        State newState = new State(++this.counter, false, null);
-        dfa.getStates().add(newState);
-        if (this.utilities.containsAcceptingState(stateSet, a)) {
-            newState.setAccepting(true);
-            newState.setTokenName(a.getAccepting().iterator().next().getTokenName());
-            dfa.getAccepting().add(newState);
+    private void numberState(State state, IdentityHashMap<State, Integer> numbers, List<State> states) {
+        if (!numbers.containsKey(state)) {
+            numbers.put(state, states.size());
+            states.add(state);
         }
-        return newState;
     }
 
-    private State getDFAState(HashSet<State> stateSet, HashMap<HashSet<State>, State> dfaStates) {
-        if (!dfaStates.containsKey(stateSet)) {
-            return null;
+    /**
+     * Adds the epsilon-closure of an NFA state to a bitset, computing it first if needed.
+     */
+    private void orClosure(long[] set, int state, long[][] closures, int[][] epsilonMoves, int words) {
+        long[] closure = closures[state];
+        if (closure == null) {
+            closure = new long[words];
+            int[] stack = new int[16];
+            int size = 0;
+            stack[size++] = state;
+            closure[state >>> 6] |= 1L << state;
+            while (size > 0) {
+                int current = stack[--size];
+                for (int next : epsilonMoves[current]) {
+                    if ((closure[next >>> 6] & (1L << next)) == 0) {
+                        closure[next >>> 6] |= 1L << next;
+                        if (size == stack.length) {
+                            stack = Arrays.copyOf(stack, size * 2);
+                        }
+                        stack[size++] = next;
+                    }
+                }
+            }
+            closures[state] = closure;
         }
-        return dfaStates.get(stateSet);
-    }
-
-    private State createDeadState(Automaton dfa) {
-        State deadState = new State(++this.counter, false, null);
-        dfa.getStates().add(deadState);
-        for (String alphabet : dfa.getAlphabets()) {
-            dfa.addTransitions(deadState, alphabet, new HashSet<>(Collections.singletonList(deadState)));
+        for (int word = 0; word < words; word++) {
+            set[word] |= closure[word];
         }
-        return deadState;
     }
 
-
     /**
-     * This method minimizes a given DFA (Deterministic Finite LexicalAnalysisGenerator.Automaton) using Hopcroft's algorithm.
+     * This method minimizes a given DFA (Deterministic Finite Automaton) using Hopcroft's algorithm.
      * The algorithm works by partitioning the states of the DFA into groups of indistinguishable states,
      * and then collapsing each group of states into a single state. The resulting minimized DFA has the
      * property that it has the smallest possible number of states and is equivalent to the original DFA.
+     * <p>
+     * The partition starts with the non-accepting states and one group per token name of the accepting
+     * states, so a combined DFA recognizing several tokens keeps telling them apart. A worklist holds the
+     * groups to split the others with (the splitters): for every symbol, the states moving into
+     * the splitter are found through the inverse transitions, and every group that has only some
+     * of its states among them is split in two. When a group not in the worklist is split, only
+     * the smaller half is added, which bounds the work by O(k n log n) for n states and k symbols.
      *
      * @param automaton The DFA to be minimized.
      * @return The minimized DFA.
      */
     public Automaton minimizeDFA(Automaton automaton) {
-        // Step 0: Create a copy of the original automaton so that it is changed.
-        Automaton dfa = this.utilities.copyAutomaton(automaton);
-
-        // Step 1: Create a list of groups of states. Initially, there are two groups: accepting states and non-accepting states.
-        List<Set<State>> currentGroup = new ArrayList<>();
-        currentGroup.add(new HashSet<>(dfa.getAccepting()));
-        currentGroup.add(new HashSet<>(dfa.getStates()));
-        currentGroup.get(1).removeAll(dfa.getAccepting());
-
+        // Step 1: Number the reachable states and the symbols, and build the transition table.
+        // A missing transition goes to an implicit sink state, numbered n.
+        List<String> symbols = new ArrayList<>();
+        HashMap<String, Integer> symbolNumbers = new HashMap<>();
+        for (String symbol : automaton.getAlphabets()) {
+            if (!symbol.equals(automaton.getEpsilonSymbol())) {
+                symbolNumbers.put(symbol, symbols.size());
+                symbols.add(symbol);
+            }
+        }
+        int k = symbols.size();
+        IdentityHashMap<State, List<Pair<Integer, State>>> edges = new IdentityHashMap<>();
+        for (Map.Entry<Pair<State, String>, HashSet<State>> entry : automaton.getTransitions().entrySet()) {
+            Integer symbol = symbolNumbers.get(entry.getKey().getSecond());
+            if (symbol != null && !entry.getValue().isEmpty()) {
+                edges.computeIfAbsent(entry.getKey().getFirst(), s -> new ArrayList<>())
+                        .add(new Pair<>(symbol, entry.getValue().iterator().next()));
+            }
+        }
+        IdentityHashMap<State, Integer> numbers = new IdentityHashMap<>();
+        List<State> states = new ArrayList<>();
+        numberState(automaton.getStart(), numbers, states);
+        for (int i = 0; i < states.size(); i++) {
+            for (Pair<Integer, State> edge : edges.getOrDefault(states.get(i), Collections.emptyList())) {
+                numberState(edge.getSecond(), numbers, states);
+            }
+        }
+        int n = states.size();
+        int sink = n;
+        int[] delta = new int[(n + 1) * k];
+        Arrays.fill(delta, sink);
+        for (int s = 0; s < n; s++) {
+            for (Pair<Integer, State> edge : edges.getOrDefault(states.get(s), Collections.emptyList())) {
+                delta[s * k + edge.getFirst()] = numbers.get(edge.getSecond());
+            }
+        }
+        IdentityHashMap<State, Boolean> accepting = new IdentityHashMap<>();
+        for (State state : automaton.getAccepting()) {
+            accepting.put(state, true);
+        }
 
-        // Step 2: Refine the groups until no further refinement is possible.
-        while (true) {
-            List<Set<State>> nextGroup = getNextEquivalence(currentGroup, dfa.getAlphabets(), dfa.getTransitionsDFAFormat());
-            if (currentGroup.equals(nextGroup)) {
-                break;
+        // Step 2: The initial partition, the non-accepting states (with the sink) in group 0, and one
+        // group per token for the accepting states, so that states accepting different tokens are
+        // never merged.
+        int total = n + 1;
+        int[] initialGroups = new int[total];
+        HashMap<String, Integer> tokenGroups = new HashMap<>();
+        for (int s = 0; s < n; s++) {
+            State state = states.get(s);
+            if (accepting.containsKey(state)) {
+                Integer group = tokenGroups.get(state.getTokenName());
+                if (group == null) {
+                    group = tokenGroups.size() + 1;
+                    tokenGroups.put(state.getTokenName(), group);
+                }
+                initialGroups[s] = group;
             }
-            currentGroup = nextGroup;
         }
+        // Step 3: Refine the groups with the inverse transitions.
+        Partition partition = refine(delta, k, initialGroups, tokenGroups.size() + 1);
+
+        // Step 4: Construct the minimized DFA, one state per group (the groups are numbered from
+        // the start state). The group of the sink is dropped if it holds no real state.
+        List<Integer> representatives = new ArrayList<>();
+        int[] groupNumbers = numberGroups(partition, delta, k, sink, representatives);
 
-        // Step 3: Construct the minimized DFA.
         Automaton minDFA = new Automaton();
-        // fields that don't need any computations.
-        minDFA.setEpsilonSymbol(dfa.getEpsilonSymbol());
-        minDFA.getAlphabets().addAll(dfa.getAlphabets());
-        // calculating the states.
-        Pair<List<State>, Pair<State, Set<State>>> statesData = getNewStatesAndSpecialStates(currentGroup, dfa);
-        minDFA.getStates().addAll(statesData.getFirst());
-        minDFA.setStart(statesData.getSecond().getFirst());
-        minDFA.getAccepting().addAll(statesData.getSecond().getSecond());
-        // calculating the transitions.
-        minDFA.setTransitionsDFAFormat(getNewTransitions(dfa, currentGroup, statesData.getFirst()));
-        minDFA.giveNewIdsAll(minDFA.getStates(), 0, true);
+        minDFA.setEpsilonSymbol(automaton.getEpsilonSymbol());
+        minDFA.getAlphabets().addAll(symbols);
+        State[] newStates = new State[representatives.size()];
+        for (int i = 0; i < newStates.length; i++) {
+            int representative = representatives.get(i);
+            if (representative == sink) {
+                newStates[i] = new State(i, false, null);
+            } else {
+                State oldState = states.get(representative);
+                boolean isAccepting = accepting.containsKey(oldState);
+                newStates[i] = new State(i, isAccepting, isAccepting ? oldState.getTokenName() : null);
+                if (isAccepting) {
+                    minDFA.getAccepting().add(newStates[i]);
+                }
+            }
+            minDFA.addState(newStates[i]);
+        }
+        minDFA.setStart(newStates[0]);
+        for (int i = 0; i < newStates.length; i++) {
+            int s = representatives.get(i);
+            for (int a = 0; a < k; a++) {
+                int group = partition.groupOf(delta[s * k + a]);
+                if (groupNumbers[group] >= 0) {
+                    minDFA.getTransitions().put(new Pair<>(newStates[i], symbols.get(a)),
+                            new HashSet<>(Collections.singletonList(newStates[groupNumbers[group]])));
+                }
+            }
+        }
         return minDFA;
     }
 
-    public List<Set<State>> getNextEquivalence(List<Set<State>> prevEquivalence, Set<String> alphabets, Map<Pair<State, String>, State> transitions) {
-        List<Set<State>> nextEquivalence = new ArrayList<>();
-
-        for (Set<State> group : prevEquivalence) {
-            Map<Set<State>, Set<State>> newGroups = new HashMap<>();
-            for (State state : group) {
-                Set<State> key = new HashSet<>();
-                for (String symbol : alphabets) {
-                    State nextState = transitions.get(new Pair<>(state, symbol));
-                    for (Set<State> g : prevEquivalence) {
-                        if (g.contains(nextState)) {
-                            key.add(g.iterator().next());
-                            break;
+    /**
+     * Refines the initial partition of the states of a DFA until the states of every group are
+     * indistinguishable.
+     *
+     * @param delta         delta[s * k + a] is the state reached from s on a, the DFA being complete
+     * @param k             the number of symbols
+     * @param initialGroups the initial group of every state
+     * @param groupCount    the number of initial groups
+     * @return the partition of the states into groups of equivalent states
+     */
+    private static Partition refine(int[] delta, int k, int[] initialGroups, int groupCount) {
+        int total = initialGroups.length;
+        // Build the inverse transitions, inverse[(t * k + a)] lists the states moving to t on a.
+        int[] inverseStart = new int[total * k + 1];
+        for (int s = 0; s < total; s++) {
+            for (int a = 0; a < k; a++) {
+                inverseStart[delta[s * k + a] * k + a + 1]++;
+            }
+        }
+        for (int i = 0; i < total * k; i++) {
+            inverseStart[i + 1] += inverseStart[i];
+        }
+        int[] inverse = new int[total * k];
+        int[] fill = Arrays.copyOf(inverseStart, total * k);
+        for (int s = 0; s < total; s++) {
+            for (int a = 0; a < k; a++) {
+                inverse[fill[delta[s * k + a] * k + a]++] = s;
+            }
+        }
+
+        Partition partition = new Partition(initialGroups, groupCount);
+
+        // Refine the groups until no splitter is left.
+        ArrayDeque<Integer> worklist = new ArrayDeque<>();
+        boolean[] inWorklist = new boolean[total + 1];
+        int largest = 0;
+        for (int b = 1; b < partition.size(); b++) {
+            if (partition.groupSize(b) > partition.groupSize(largest)) {
+                largest = b;
+            }
+        }
+        for (int b = 0; b < partition.size(); b++) {
+            if (b != largest) {
+                worklist.add(b);
+                inWorklist[b] = true;
+            }
+        }
+        int[] splitter = new int[total];
+        int[] touched = new int[total];
+        while (!worklist.isEmpty()) {
+            int block = worklist.poll();
+            inWorklist[block] = false;
+            int splitterSize = partition.copyGroup(block, splitter);
+            for (int a = 0; a < k; a++) {
+                int touchedCount = 0;
+                for (int i = 0; i < splitterSize; i++) {
+                    int t = splitter[i] * k + a;
+                    for (int j = inverseStart[t]; j < inverseStart[t + 1]; j++) {
+                        int group = partition.mark(inverse[j]);
+                        if (group >= 0) {
+                            touched[touchedCount++] = group;
                         }
                     }
                 }
-                if (!newGroups.containsKey(key)) {
-                    newGroups.put(key, new HashSet<>());
+                for (int i = 0; i < touchedCount; i++) {
+                    int group = touched[i];
+                    int newGroup = partition.split(group);
+                    if (newGroup < 0) {
+                        continue;
+                    }
+                    if (inWorklist[group]) {
+                        worklist.add(newGroup);
+                        inWorklist[newGroup] = true;
+                    } else {
+                        int smaller = (partition.groupSize(newGroup) <= partition.groupSize(group)) ? newGroup : group;
+                        worklist.add(smaller);
+                        inWorklist[smaller] = true;
+                    }
                 }
-                newGroups.get(key).add(state);
             }
-            nextEquivalence.addAll(newGroups.values());
         }
-
-        return nextEquivalence;
+        return partition;
     }
 
-    public Pair<List<State>, Pair<State, Set<State>>> getNewStatesAndSpecialStates(List<Set<State>> group, Automaton automaton) {
-        List<State> newStates = new ArrayList<>(group.size());
-        State newStartState = null;
-        Set<State> newAcceptingStates = new HashSet<>();
-
-        // Create new states and map old states to new states
-        for (Set<State> g : group) {
-            State representativeState = g.iterator().next();  // take the first state of the set as the representative of the set
-            newStates.add(representativeState);
-
-            if (g.contains(automaton.getStart())) {
-                newStartState = representativeState;  // the new start state is the representative of the group containing the old start state
+    /**
+     * Numbers the groups of a partition in breadth first order from the group of the start state
+     * (state 0).
+     *
+     * @param representatives receives a state of every numbered group
+     * @return the number of every group, -1 for the group of the sink if it holds no other state
+     */
+    private static int[] numberGroups(Partition partition, int[] delta, int k, int sink,
+                                      List<Integer> representatives) {
+        int[] groupNumbers = new int[partition.size()];
+        Arrays.fill(groupNumbers, -1);
+        int sinkGroup = (partition.groupSize(partition.groupOf(sink)) == 1) ? partition.groupOf(sink) : -1;
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        groupNumbers[partition.groupOf(0)] = 0;
+        representatives.add(0);
+        queue.add(0);
+        while (!queue.isEmpty()) {
+            int s = queue.poll();
+            for (int a = 0; a < k; a++) {
+                int group = partition.groupOf(delta[s * k + a]);
+                if (group != sinkGroup && groupNumbers[group] < 0) {
+                    groupNumbers[group] = representatives.size();
+                    representatives.add(delta[s * k + a]);
+                    queue.add(delta[s * k + a]);
+                }
             }
+        }
+        return groupNumbers;
+    }
 
-            for (State oldState : g) {
-                if (automaton.getAccepting().contains(oldState)) {
-                    newAcceptingStates.add(representativeState);  // if the group contains an old accepting state, the representative state is a new accepting state
-                    break;
+    /**
+     * A refinable partition of the states 0..n-1 into groups.
+     * The states are kept in one array, every group being a contiguous slice of it. Marking a
+     * state moves it to the front of its group's slice, so a group is split into its marked and
+     * unmarked states in time proportional to the number of marked ones.
+     */
+    private static class Partition {
+        private final int[] elements;
+        private final int[] locations;
+        private final int[] groups;
+        private final int[] firsts;
+        private final int[] ends;
+        private final int[] marks;
+        private int size;
+
+        /**
+         * @param initialGroups the initial group of every state, in 0..groupCount-1
+         * @param groupCount    the number of initial groups, the empty ones are dropped
+         */
+        Partition(int[] initialGroups, int groupCount) {
+            int n = initialGroups.length;
+            this.elements = new int[n];
+            this.locations = new int[n];
+            this.groups = new int[n];
+            this.firsts = new int[n + 1];
+            this.ends = new int[n + 1];
+            this.marks = new int[n + 1];
+            int[] counts = new int[groupCount];
+            for (int group : initialGroups) {
+                counts[group]++;
+            }
+            int[] renumbered = new int[groupCount];
+            int position = 0;
+            for (int g = 0; g < groupCount; g++) {
+                if (counts[g] > 0) {
+                    renumbered[g] = this.size;
+                    this.firsts[this.size] = this.marks[this.size] = position;
+                    position += counts[g];
+                    this.ends[this.size++] = position;
                 }
             }
+            int[] next = Arrays.copyOf(this.firsts, this.size);
+            for (int s = 0; s < n; s++) {
+                int group = renumbered[initialGroups[s]];
+                this.groups[s] = group;
+                this.locations[s] = next[group];
+                this.elements[next[group]++] = s;
+            }
         }
-        Pair<State, Set<State>> temp = new Pair<>(newStartState, newAcceptingStates);
-        return new Pair<>(newStates, temp);
-    }
 
-    public Map<Pair<State, String>, State> getNewTransitions(Automaton oldDFA, List<Set<State>> group, List<State> newStates) {
-        Map<Pair<State, String>, State> oldTransitions = oldDFA.getTransitionsDFAFormat();
-        Map<State, State> stateToRepresentative = new HashMap<>();
+        int size() {
+            return this.size;
+        }
 
-        // Map old states to their respective representative.
-        int i = 0;
-        for (Set<State> g : group) {
-            for (State oldState : g) {
-                stateToRepresentative.put(oldState, newStates.get(i));
-            }
-            i++;
+        int groupOf(int state) {
+            return this.groups[state];
         }
 
-        // Create new transitions
-        Map<Pair<State, String>, State> newTransitions = new HashMap<>();
+        int groupSize(int group) {
+            return this.ends[group] - this.firsts[group];
+        }
+
+        /**
+         * Copies the states of a group into the given array.
+         *
+         * @return the number of states copied
+         */
+        int copyGroup(int group, int[] destination) {
+            int length = groupSize(group);
+            System.arraycopy(this.elements, this.firsts[group], destination, 0, length);
+            return length;
+        }
 
-        for (State newState : newStates) {
-            for (String symbol : oldDFA.getAlphabets()) {
-                Pair<State, String> key = new Pair<>(newState, symbol);
-                newTransitions.put(key, stateToRepresentative.get(oldTransitions.get(key)));
+        /**
+         * Marks a state.
+         *
+         * @return the group of the state if it is the first state marked in it, otherwise -1
+         */
+        int mark(int state) {
+            int group = this.groups[state];
+            int location = this.locations[state];
+            int mark = this.marks[group];
+            if (location < mark) {
+                return -1; // already marked
+            }
+            int other = this.elements[mark];
+            this.elements[mark] = state;
+            this.locations[state] = mark;
+            this.elements[location] = other;
+            this.locations[other] = location;
+            this.marks[group]++;
+            return (mark == this.firsts[group]) ? group : -1;
+        }
+
+        /**
+         * Splits a group into its marked and unmarked states, and clears the marks.
+         *
+         * @return the new group holding the marked states, or -1 if the group wasn't split
+         */
+        int split(int group) {
+            int mark = this.marks[group];
+            this.marks[group] = this.firsts[group];
+            if (mark == this.ends[group]) {
+                return -1; // all the states are marked
+            }
+            int newGroup = this.size++;
+            this.firsts[newGroup] = this.marks[newGroup] = this.firsts[group];
+            this.ends[newGroup] = mark;
+            this.firsts[group] = this.marks[group] = mark;
+            for (int i = this.firsts[newGroup]; i < mark; i++) {
+                this.groups[this.elements[i]] = newGroup;
             }
+            return newGroup;
         }
-        return newTransitions;
     }
 }
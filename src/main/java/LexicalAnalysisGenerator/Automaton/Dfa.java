@@ -0,0 +1,30 @@
+package LexicalAnalysisGenerator.Automaton;
+
+import java.util.List;
+
+/**
+ * A DFA that a scanner runs one character at a time.
+ * The states are ints, and the accepting states carry token types, the indices of the token names.
+ */
+public interface Dfa {
+    int NO_STATE = -1;
+    int NO_TOKEN = -1;
+
+    int getStartState();
+
+    /**
+     * Returns the state reached from the given state on the given character.
+     *
+     * @return the next state, or NO_STATE if there is no transition
+     */
+    int step(int state, char c);
+
+    /**
+     * @return the token accepted in the given state, or NO_TOKEN if the state is not accepting
+     */
+    int getAcceptToken(int state);
+
+    String getTokenName(int tokenType);
+
+    List<String> getTokenNames();
+}
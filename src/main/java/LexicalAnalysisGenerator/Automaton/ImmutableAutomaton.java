@@ -0,0 +1,259 @@
+package LexicalAnalysisGenerator.Automaton;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class represents a finite automaton that never changes once it is built, so it can be
+ * shared between threads and between the automata built from it.
+ * The states are numbers, the states and the accepting states are kept in {@link PersistentMap}s,
+ * and the combinators of {@link Utilities} build a new automaton from the maps of their operands,
+ * adding only the new states and the new edges, instead of copying the operands.
+ * <p>
+ * The states of every automaton are numbered from a counter shared by all of them, so the
+ * operands of a combinator normally have no state in common. When they do (an automaton
+ * concatenated with itself, or two automata built from the same one), the states of the second
+ * operand are numbered again before they are merged, as the new edges leaving the states of one
+ * operand must not leave the states of the other one.
+ */
+public final class ImmutableAutomaton {
+    private static final String BUILT_IN_EPSILON_SYMBOL = String.valueOf('\u03B5');
+    // the token name of the accepting states that have none, as a map can't hold null
+    static final String NO_TOKEN_NAME = new String();
+    private static final AtomicInteger NEXT_ID = new AtomicInteger();
+
+    // every state, mapped to the edges leaving it
+    final PersistentMap<Integer, Edges> states;
+    final PersistentMap<String, Boolean> alphabets;
+    final int start;
+    // the accepting states, mapped to their token names
+    final PersistentMap<Integer, String> accepting;
+    final String epsilonSymbol;
+
+    ImmutableAutomaton(PersistentMap<Integer, Edges> states, PersistentMap<String, Boolean> alphabets, int start,
+                       PersistentMap<Integer, String> accepting, String epsilonSymbol) {
+        this.states = states;
+        this.alphabets = alphabets;
+        this.start = start;
+        this.accepting = accepting;
+        this.epsilonSymbol = epsilonSymbol;
+    }
+
+    /**
+     * Creates the automaton of one symbol, like {@link Automaton#Automaton(String, String, String)}.
+     */
+    public ImmutableAutomaton(String alphabet, String tokenName, String epsilonSymbol) {
+        int q0 = newIds(2);
+        int q1 = q0 + 1;
+        this.epsilonSymbol = (epsilonSymbol == null) ? BUILT_IN_EPSILON_SYMBOL : epsilonSymbol;
+        this.states = PersistentMap.<Integer, Edges>empty()
+                .plus(q0, Edges.NONE.with(alphabet, q1))
+                .plus(q1, Edges.NONE);
+        this.alphabets = PersistentMap.<String, Boolean>empty().plus(alphabet, true);
+        this.start = q0;
+        this.accepting = PersistentMap.<Integer, String>empty().plus(q1, (tokenName == null) ? alphabet : tokenName);
+    }
+
+    /**
+     * Takes a snapshot of a mutable automaton.
+     *
+     * @param automaton the automaton, it may be changed afterwards
+     * @return the immutable automaton equivalent to it
+     */
+    public static ImmutableAutomaton of(Automaton automaton) {
+        // the states may have been renumbered after being hashed, so they are indexed by identity
+        IdentityHashMap<State, Integer> ids = new IdentityHashMap<>();
+        List<State> order = new ArrayList<>();
+        addState(automaton.getStart(), ids, order);
+        for (State state : automaton.getStates()) {
+            addState(state, ids, order);
+        }
+        for (Map.Entry<Pair<State, String>, HashSet<State>> entry : automaton.getTransitions().entrySet()) {
+            addState(entry.getKey().getFirst(), ids, order);
+            for (State state : entry.getValue()) {
+                addState(state, ids, order);
+            }
+        }
+        for (State state : automaton.getAccepting()) {
+            addState(state, ids, order);
+        }
+        int first = newIds(order.size());
+
+        Edges[] edges = new Edges[order.size()];
+        Arrays.fill(edges, Edges.NONE);
+        for (Map.Entry<Pair<State, String>, HashSet<State>> entry : automaton.getTransitions().entrySet()) {
+            int from = ids.get(entry.getKey().getFirst());
+            for (State state : entry.getValue()) {
+                edges[from] = edges[from].with(entry.getKey().getSecond(), first + ids.get(state));
+            }
+        }
+        PersistentMap<Integer, Edges> states = PersistentMap.empty();
+        for (int i = 0; i < edges.length; i++) {
+            states = states.plus(first + i, edges[i]);
+        }
+        PersistentMap<String, Boolean> alphabets = PersistentMap.empty();
+        for (String alphabet : automaton.getAlphabets()) {
+            alphabets = alphabets.plus(alphabet, true);
+        }
+        PersistentMap<Integer, String> accepting = PersistentMap.empty();
+        for (State state : automaton.getAccepting()) {
+            String tokenName = state.getTokenName();
+            accepting = accepting.plus(first + ids.get(state), (tokenName == null) ? NO_TOKEN_NAME : tokenName);
+        }
+        return new ImmutableAutomaton(states, alphabets, first + ids.get(automaton.getStart()), accepting,
+                automaton.getEpsilonSymbol());
+    }
+
+    private static void addState(State state, IdentityHashMap<State, Integer> ids, List<State> order) {
+        if (!ids.containsKey(state)) {
+            ids.put(state, order.size());
+            order.add(state);
+        }
+    }
+
+    /**
+     * @return the first of count new consecutive state numbers
+     */
+    static int newIds(int count) {
+        return NEXT_ID.getAndAdd(count);
+    }
+
+    /**
+     * Numbers the states again, for the automaton to share no state with any other one.
+     *
+     * @return the same automaton, its states having new numbers
+     */
+    ImmutableAutomaton renumbered() {
+        int first = newIds(this.states.size());
+        List<Integer> oldIds = new ArrayList<>(this.states.size());
+        this.states.forEach((id, edges) -> oldIds.add(id));
+        HashMap<Integer, Integer> ids = new HashMap<>();
+        for (int id : oldIds) {
+            ids.put(id, first + ids.size());
+        }
+        PersistentMap<Integer, Edges> states = PersistentMap.empty();
+        for (int id : oldIds) {
+            states = states.plus(ids.get(id), this.states.get(id).renumbered(ids));
+        }
+        List<Integer> acceptingIds = new ArrayList<>(this.accepting.size());
+        this.accepting.forEach((id, tokenName) -> acceptingIds.add(id));
+        PersistentMap<Integer, String> accepting = PersistentMap.empty();
+        for (int id : acceptingIds) {
+            accepting = accepting.plus(ids.get(id), this.accepting.get(id));
+        }
+        return new ImmutableAutomaton(states, this.alphabets, ids.get(this.start), accepting, this.epsilonSymbol);
+    }
+
+    /**
+     * Converts the automaton into a mutable {@link Automaton}, the states being numbered 0..n-1.
+     */
+    public Automaton toAutomaton() {
+        Automaton automaton = new Automaton();
+        automaton.setEpsilonSymbol(this.epsilonSymbol);
+        HashMap<Integer, State> states = new HashMap<>();
+        this.states.forEach((id, edges) -> {
+            String tokenName = this.accepting.get(id);
+            State state = new State(states.size(), tokenName != null, (tokenName == NO_TOKEN_NAME) ? null : tokenName);
+            states.put(id, state);
+            automaton.addState(state);
+            if (tokenName != null) {
+                automaton.addFinalState(state);
+            }
+        });
+        this.states.forEach((id, edges) -> {
+            for (int i = 0; i < edges.symbols.length; i++) {
+                HashSet<State> targets = new HashSet<>();
+                for (int target : edges.targets[i]) {
+                    targets.add(states.get(target));
+                }
+                automaton.addTransitions(states.get(id), edges.symbols[i], targets);
+            }
+        });
+        this.alphabets.forEach((alphabet, present) -> automaton.getAlphabets().add(alphabet));
+        automaton.setStart(states.get(this.start));
+        return automaton;
+    }
+
+    public int getStateCount() {
+        return this.states.size();
+    }
+
+    public Set<String> getAlphabets() {
+        Set<String> alphabets = new HashSet<>();
+        this.alphabets.forEach((alphabet, present) -> alphabets.add(alphabet));
+        return alphabets;
+    }
+
+    public String getEpsilonSymbol() {
+        return this.epsilonSymbol;
+    }
+
+    /**
+     * @return the token name of one of the accepting states, or null if they have none
+     */
+    public String getToken() {
+        String[] token = new String[1];
+        this.accepting.forEach((id, tokenName) -> {
+            if (token[0] == null && tokenName != NO_TOKEN_NAME) {
+                token[0] = tokenName;
+            }
+        });
+        return token[0];
+    }
+
+    @Override
+    public String toString() {
+        return toAutomaton().toString();
+    }
+
+    /**
+     * The edges leaving a state, grouped by symbol. A state has a few edges, so they are copied
+     * when one is added.
+     */
+    static final class Edges {
+        static final Edges NONE = new Edges(new String[0], new int[0][]);
+
+        final String[] symbols;
+        final int[][] targets;
+
+        private Edges(String[] symbols, int[][] targets) {
+            this.symbols = symbols;
+            this.targets = targets;
+        }
+
+        /**
+         * @return the edges with one more edge
+         */
+        Edges with(String symbol, int target) {
+            for (int i = 0; i < this.symbols.length; i++) {
+                if (this.symbols[i].equals(symbol)) {
+                    for (int t : this.targets[i]) {
+                        if (t == target) {
+                            return this;
+                        }
+                    }
+                    int[][] targets = this.targets.clone();
+                    targets[i] = Arrays.copyOf(this.targets[i], this.targets[i].length + 1);
+                    targets[i][this.targets[i].length] = target;
+                    return new Edges(this.symbols, targets);
+                }
+            }
+            String[] symbols = Arrays.copyOf(this.symbols, this.symbols.length + 1);
+            symbols[this.symbols.length] = symbol;
+            int[][] targets = Arrays.copyOf(this.targets, this.targets.length + 1);
+            targets[this.targets.length] = new int[]{target};
+            return new Edges(symbols, targets);
+        }
+
+        Edges renumbered(Map<Integer, Integer> ids) {
+            int[][] targets = new int[this.targets.length][];
+            for (int i = 0; i < targets.length; i++) {
+                targets[i] = new int[this.targets[i].length];
+                for (int j = 0; j < targets[i].length; j++) {
+                    targets[i][j] = ids.get(this.targets[i][j]);
+                }
+            }
+            return new Edges(this.symbols, targets);
+        }
+    }
+}
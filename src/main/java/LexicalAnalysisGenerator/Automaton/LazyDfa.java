@@ -0,0 +1,218 @@
+package LexicalAnalysisGenerator.Automaton;
+
+import java.util.*;
+
+/**
+ * This class runs an NFA as a DFA built on demand.
+ * A DFA state is a set of NFA states, and it is only created the first time the scanner reaches
+ * it; its transitions are filled in the same way, one character class at a time. The states are
+ * kept in a cache bounded by a memory budget: when a new state does not fit, the whole cache is
+ * flushed and filling starts over from the state being created. So the memory stays bounded even
+ * when the full subset construction explodes, while inputs that keep to a small part of the state
+ * space run almost as fast as with a {@link CompiledDfa}.
+ * <p>
+ * A flush renumbers the states, so a state number is only valid until the next call to
+ * {@link #step} or {@link #getStartState}. This class is not thread safe, one scanner at a time
+ * can run it.
+ */
+public class LazyDfa implements Dfa {
+    public static final long DEFAULT_CACHE_SIZE = 1 << 20;
+
+    // The transition of a cached state that has not been computed yet.
+    private static final int UNKNOWN = -2;
+
+    private final NfaTable nfa;
+    private final String[] tokenNames;
+    private final int classCount;
+    // The class of every character, class i + 1 being the elementary symbol i of the NFA. The
+    // characters after the end of the array are in class 0, that has no transition.
+    private final char[] classMap;
+    private final int capacity;
+
+    // The cache: table[state * classCount + class] is the next state, NO_STATE or UNKNOWN.
+    private final int[] table;
+    private final int[] acceptTokens;
+    private final List<long[]> sets;
+    private final StateSetTable index;
+    private int startState;
+
+    private final int[] stack;
+    private long flushes;
+
+    /**
+     * @param nfa        the combined NFA of the tokens, its accepting states carry the token names
+     * @param tokenNames the names of the tokens ordered from the highest to the lowest priority,
+     *                   their indices are the token types
+     * @param cacheSize  the memory budget of the state cache in bytes
+     */
+    public LazyDfa(Automaton nfa, List<String> tokenNames, long cacheSize) {
+        this(new NfaTable(nfa, tokenNames), tokenNames, cacheSize);
+    }
+
+    /**
+     * @param nfa        the combined NFA of the tokens, as {@link Nfa#combine} builds it
+     * @param tokenNames the names of the tokens ordered from the highest to the lowest priority,
+     *                   their indices are the token types
+     * @param cacheSize  the memory budget of the state cache in bytes
+     */
+    public LazyDfa(Nfa nfa, List<String> tokenNames, long cacheSize) {
+        this(new NfaTable(nfa, tokenNames), tokenNames, cacheSize);
+    }
+
+    private LazyDfa(NfaTable nfa, List<String> tokenNames, long cacheSize) {
+        this.nfa = nfa;
+        this.tokenNames = tokenNames.toArray(new String[0]);
+        this.classCount = this.nfa.symbols.size() + 1;
+        this.classMap = this.nfa.classMap();
+
+        // A cached state takes its row, its set of NFA states and about 64 bytes of overhead
+        long stateSize = (long) this.classCount * Integer.BYTES + (long) this.nfa.words * Long.BYTES + 64;
+        long capacity = Math.min(cacheSize / stateSize, Integer.MAX_VALUE / this.classCount);
+        if (capacity < 2) {
+            throw new IllegalArgumentException("The cache size " + cacheSize + " can't hold two states of "
+                    + stateSize + " bytes.");
+        }
+        this.capacity = (int) capacity;
+        this.table = new int[this.capacity * this.classCount];
+        this.acceptTokens = new int[this.capacity];
+        this.sets = new ArrayList<>();
+        this.index = new StateSetTable();
+        this.startState = NO_STATE;
+        this.stack = new int[this.nfa.stateCount];
+    }
+
+    @Override
+    public int getStartState() {
+        if (this.startState == NO_STATE) {
+            long[] set = new long[this.nfa.words];
+            addClosure(set, this.nfa.start);
+            this.startState = addState(set);
+        }
+        return this.startState;
+    }
+
+    @Override
+    public int step(int state, char c) {
+        int symbolClass = (c < this.classMap.length) ? this.classMap[c] : 0;
+        int next = this.table[state * this.classCount + symbolClass];
+        return (next != UNKNOWN) ? next : computeStep(state, symbolClass);
+    }
+
+    /**
+     * Computes a missing transition: the next set is the union of the epsilon-closures of the
+     * NFA states the set moves to on the class.
+     */
+    private int computeStep(int state, int symbolClass) {
+        long[] set = this.sets.get(state);
+        long[] nextSet = new long[this.nfa.words];
+        boolean empty = true;
+        for (int word = 0; word < this.nfa.words; word++) {
+            for (long bits = set[word]; bits != 0; bits &= bits - 1) {
+                int[] stateMoves = this.nfa.moves[(word << 6) + Long.numberOfTrailingZeros(bits)];
+                for (int i = 0; i < stateMoves.length; i += 2) {
+                    if (stateMoves[i] == symbolClass - 1) {
+                        addClosure(nextSet, stateMoves[i + 1]);
+                        empty = false;
+                    }
+                }
+            }
+        }
+        if (empty) {
+            this.table[state * this.classCount + symbolClass] = NO_STATE;
+            return NO_STATE;
+        }
+        int next = this.index.get(nextSet, this.sets);
+        if (next < 0) {
+            long flushesBefore = this.flushes;
+            next = addState(nextSet);
+            if (this.flushes != flushesBefore) {
+                // the state was flushed with the rest of the cache, its row is gone
+                return next;
+            }
+        }
+        this.table[state * this.classCount + symbolClass] = next;
+        return next;
+    }
+
+    /**
+     * Adds a new state to the cache, flushing the cache first if it is full.
+     *
+     * @return the number of the new state
+     */
+    private int addState(long[] set) {
+        if (this.sets.size() == this.capacity) {
+            flush();
+        }
+        int state = this.index.intern(set, this.sets);
+        Arrays.fill(this.table, state * this.classCount, (state + 1) * this.classCount, UNKNOWN);
+        this.table[state * this.classCount] = NO_STATE;
+        int preferred = this.nfa.preferredAccepting(set);
+        // a token is ranked by its index in the token names, that is its type
+        int rank = (preferred < 0) ? -1 : this.nfa.acceptRanks[preferred];
+        this.acceptTokens[state] = (rank >= 0 && rank < this.tokenNames.length) ? rank : NO_TOKEN;
+        return state;
+    }
+
+    private void flush() {
+        this.sets.clear();
+        this.index.clear();
+        this.startState = NO_STATE;
+        this.flushes++;
+    }
+
+    /**
+     * Adds the epsilon-closure of an NFA state to a set.
+     */
+    private void addClosure(long[] set, int state) {
+        if ((set[state >>> 6] & (1L << state)) != 0) {
+            return;
+        }
+        set[state >>> 6] |= 1L << state;
+        int size = 0;
+        this.stack[size++] = state;
+        while (size > 0) {
+            for (int next : this.nfa.epsilonMoves[this.stack[--size]]) {
+                if ((set[next >>> 6] & (1L << next)) == 0) {
+                    set[next >>> 6] |= 1L << next;
+                    this.stack[size++] = next;
+                }
+            }
+        }
+    }
+
+    @Override
+    public int getAcceptToken(int state) {
+        return this.acceptTokens[state];
+    }
+
+    @Override
+    public String getTokenName(int tokenType) {
+        return this.tokenNames[tokenType];
+    }
+
+    @Override
+    public List<String> getTokenNames() {
+        return Collections.unmodifiableList(Arrays.asList(this.tokenNames));
+    }
+
+    /**
+     * @return the number of states the cache can hold
+     */
+    public int getCapacity() {
+        return this.capacity;
+    }
+
+    /**
+     * @return the number of states in the cache
+     */
+    public int getCachedStateCount() {
+        return this.sets.size();
+    }
+
+    /**
+     * @return the number of times the cache was flushed
+     */
+    public long getFlushCount() {
+        return this.flushes;
+    }
+}
@@ -0,0 +1,215 @@
+package LexicalAnalysisGenerator.Automaton;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * This class runs a compiled DFA straight from a memory mapped file.
+ * The file holds the tables of a {@link CompiledDfa}, so a lexer compiled once is loaded without
+ * running the regex to DFA pipeline again; and as the tables are read where they are mapped, with
+ * nothing parsed or copied but the token names, loading takes the time of mapping the file.
+ * <p>
+ * The format (version 1) is little endian:
+ * <pre>
+ * int    magic "LXDF", short version, short 0
+ * int    token count, state count, class count, class map length
+ * token names, each an int length and the UTF-8 bytes, padded to a multiple of 4 bytes
+ * int    next-state table, stateCount * classCount entries
+ * int    accepted tokens, stateCount entries
+ * char   class map
+ * </pre>
+ * Only the header is checked when a file is mapped.
+ */
+public class MappedDfa implements Dfa {
+    public static final int MAGIC = 0x4644584C; // "LXDF" read as a little endian int
+    public static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 24;
+
+    private final String[] tokenNames;
+    private final int stateCount;
+    private final int classCount;
+    private final CharBuffer classMap;
+    private final int classMapLength;
+    private final IntBuffer table;
+    private final IntBuffer acceptTokens;
+
+    private MappedDfa(String[] tokenNames, int stateCount, int classCount, CharBuffer classMap, IntBuffer table,
+                      IntBuffer acceptTokens) {
+        this.tokenNames = tokenNames;
+        this.stateCount = stateCount;
+        this.classCount = classCount;
+        this.classMap = classMap;
+        this.classMapLength = classMap.capacity();
+        this.table = table;
+        this.acceptTokens = acceptTokens;
+    }
+
+    /**
+     * Writes a compiled DFA to a file. The file is written next to its final name then moved, so
+     * that a process mapping it never sees it half written.
+     *
+     * @param dfa  the compiled DFA
+     * @param file the file to write
+     * @throws IOException if writing the file fails
+     */
+    public static void write(CompiledDfa dfa, Path file) throws IOException {
+        List<String> names = dfa.getTokenNames();
+        byte[][] encodedNames = new byte[names.size()][];
+        int namesSize = 0;
+        for (int i = 0; i < encodedNames.length; i++) {
+            encodedNames[i] = names.get(i).getBytes(StandardCharsets.UTF_8);
+            namesSize += Integer.BYTES + encodedNames[i].length;
+        }
+        namesSize = (namesSize + 3) & ~3;
+        int[] table = dfa.getTable();
+        int[] acceptTokens = dfa.getAcceptTokens();
+        char[] classMap = dfa.getClassMap();
+        long size = HEADER_SIZE + namesSize + (long) (table.length + acceptTokens.length) * Integer.BYTES
+                + (long) classMap.length * Character.BYTES;
+        if (size > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("The DFA is too large (" + size + " bytes) to be written.");
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC).putShort((short) VERSION).putShort((short) 0);
+        buffer.putInt(names.size()).putInt(dfa.getStateCount()).putInt(dfa.getClassCount()).putInt(classMap.length);
+        for (byte[] name : encodedNames) {
+            buffer.putInt(name.length).put(name);
+        }
+        buffer.position(HEADER_SIZE + namesSize);
+        buffer.asIntBuffer().put(table).put(acceptTokens);
+        buffer.position(buffer.position() + (table.length + acceptTokens.length) * Integer.BYTES);
+        buffer.asCharBuffer().put(classMap);
+        buffer.position(0);
+
+        // every writer has its own temporary file, so processes can write the same file at once
+        Path temporary = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Maps a file written by {@link #write}.
+     *
+     * @param file the file to map
+     * @return the DFA, reading its tables from the mapping
+     * @throws IOException              if mapping the file fails
+     * @throws IllegalArgumentException if the file is not a compiled DFA of this version
+     */
+    public static MappedDfa map(Path file) throws IOException {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // the mapping stays valid after the channel is closed
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+            throw new IllegalArgumentException(file + " is not a compiled DFA.");
+        }
+        if (buffer.getShort(4) != VERSION) {
+            throw new IllegalArgumentException(file + " has version " + buffer.getShort(4) + " instead of "
+                    + VERSION + ".");
+        }
+        int tokenCount = buffer.getInt(8);
+        int stateCount = buffer.getInt(12);
+        int classCount = buffer.getInt(16);
+        int classMapLength = buffer.getInt(20);
+        try {
+            buffer.position(HEADER_SIZE);
+            String[] tokenNames = new String[tokenCount];
+            for (int i = 0; i < tokenCount; i++) {
+                byte[] name = new byte[buffer.getInt()];
+                buffer.get(name);
+                tokenNames[i] = new String(name, StandardCharsets.UTF_8);
+            }
+            int tables = (buffer.position() + 3) & ~3;
+            long tableLength = (long) stateCount * classCount;
+            long end = tables + (tableLength + stateCount) * Integer.BYTES + (long) classMapLength * Character.BYTES;
+            if (stateCount < 1 || classCount < 1 || classMapLength < 0 || end != buffer.capacity()) {
+                throw new IllegalArgumentException(file + " has an invalid size.");
+            }
+            IntBuffer table = slice(buffer, tables, tableLength * Integer.BYTES).asIntBuffer();
+            IntBuffer acceptTokens = slice(buffer, tables + tableLength * Integer.BYTES,
+                    (long) stateCount * Integer.BYTES).asIntBuffer();
+            CharBuffer classMap = slice(buffer, end - (long) classMapLength * Character.BYTES,
+                    (long) classMapLength * Character.BYTES).asCharBuffer();
+            return new MappedDfa(tokenNames, stateCount, classCount, classMap, table, acceptTokens);
+        } catch (BufferUnderflowException | NegativeArraySizeException e) {
+            throw new IllegalArgumentException(file + " has invalid token names.", e);
+        }
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, long offset, long length) {
+        ByteBuffer view = buffer.duplicate();
+        view.position((int) offset);
+        view.limit((int) (offset + length));
+        return view.slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @Override
+    public int step(int state, char c) {
+        int symbolClass = (c < this.classMapLength) ? this.classMap.get(c) : 0;
+        return this.table.get(state * this.classCount + symbolClass);
+    }
+
+    @Override
+    public int getStartState() {
+        return 0;
+    }
+
+    @Override
+    public int getAcceptToken(int state) {
+        return this.acceptTokens.get(state);
+    }
+
+    @Override
+    public String getTokenName(int tokenType) {
+        return this.tokenNames[tokenType];
+    }
+
+    @Override
+    public List<String> getTokenNames() {
+        return Collections.unmodifiableList(Arrays.asList(this.tokenNames));
+    }
+
+    public int getStateCount() {
+        return this.stateCount;
+    }
+
+    public int getClassCount() {
+        return this.classCount;
+    }
+
+    /**
+     * Copies the tables into a {@link CompiledDfa}, for the code that needs one (such as the
+     * scanner generators).
+     *
+     * @return the compiled DFA
+     */
+    public CompiledDfa toCompiledDfa() {
+        int[] table = new int[this.table.capacity()];
+        this.table.duplicate().get(table);
+        int[] acceptTokens = new int[this.stateCount];
+        this.acceptTokens.duplicate().get(acceptTokens);
+        char[] classMap = new char[this.classMapLength];
+        this.classMap.duplicate().get(classMap);
+        return new CompiledDfa(this.tokenNames.clone(), this.stateCount, this.classCount, classMap, table,
+                acceptTokens);
+    }
+}
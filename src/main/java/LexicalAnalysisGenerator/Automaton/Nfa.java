@@ -0,0 +1,304 @@
+package LexicalAnalysisGenerator.Automaton;
+
+import java.util.*;
+
+/**
+ * This class is an arena of NFA states and edges.
+ * States are numbered 0..n-1 in the order they are added, and the edges are kept in parallel
+ * int arrays, the edges leaving a state being linked through nextEdge. Every edge is labelled
+ * with a range of characters low..high, or it is an epsilon edge.
+ * Fragments are built in place: adding a state or an edge never copies or renumbers the states
+ * added before it.
+ * <p>
+ * A fragment has one accepting state, its accept state. The combined NFA of several tokens has
+ * one accepting state per token or more, kept in side arrays with their token names.
+ */
+public class Nfa {
+    public static final int EPSILON = -1;
+    public static final int NO_EDGE = -1;
+    public static final int NO_STATE = -1;
+
+    private int stateCount;
+    private int[] firstEdge;
+
+    private int edgeCount;
+    private int[] edgeLow;
+    private int[] edgeHigh;
+    private int[] edgeTarget;
+    private int[] nextEdge;
+
+    private boolean[] accepting;
+    private String[] tokenNames;
+
+    private int start;
+    private int accept;
+
+    public Nfa() {
+        this.accept = NO_STATE;
+        this.firstEdge = new int[16];
+        this.accepting = new boolean[16];
+        this.tokenNames = new String[16];
+        this.edgeLow = new int[16];
+        this.edgeHigh = new int[16];
+        this.edgeTarget = new int[16];
+        this.nextEdge = new int[16];
+    }
+
+    /**
+     * @return the number of the new state
+     */
+    public int addState() {
+        if (this.stateCount == this.firstEdge.length) {
+            this.firstEdge = Arrays.copyOf(this.firstEdge, this.stateCount * 2);
+            this.accepting = Arrays.copyOf(this.accepting, this.stateCount * 2);
+            this.tokenNames = Arrays.copyOf(this.tokenNames, this.stateCount * 2);
+        }
+        this.firstEdge[this.stateCount] = NO_EDGE;
+        return this.stateCount++;
+    }
+
+    /**
+     * Adds an edge labelled with the characters low..high.
+     */
+    public void addEdge(int from, int low, int high, int to) {
+        if (this.edgeCount == this.edgeLow.length) {
+            int capacity = this.edgeCount * 2;
+            this.edgeLow = Arrays.copyOf(this.edgeLow, capacity);
+            this.edgeHigh = Arrays.copyOf(this.edgeHigh, capacity);
+            this.edgeTarget = Arrays.copyOf(this.edgeTarget, capacity);
+            this.nextEdge = Arrays.copyOf(this.nextEdge, capacity);
+        }
+        this.edgeLow[this.edgeCount] = low;
+        this.edgeHigh[this.edgeCount] = high;
+        this.edgeTarget[this.edgeCount] = to;
+        this.nextEdge[this.edgeCount] = this.firstEdge[from];
+        this.firstEdge[from] = this.edgeCount++;
+    }
+
+    public void addEpsilon(int from, int to) {
+        addEdge(from, EPSILON, EPSILON, to);
+    }
+
+    /**
+     * Makes a state accepting.
+     *
+     * @param tokenName the token the state accepts, or null
+     */
+    public void setAccepting(int state, String tokenName) {
+        this.accepting[state] = true;
+        this.tokenNames[state] = tokenName;
+    }
+
+    /**
+     * @return true if the state is accepting, the accept state of a fragment is not unless it is
+     * made accepting
+     */
+    public boolean isAccepting(int state) {
+        return this.accepting[state];
+    }
+
+    /**
+     * @return the token the state accepts, or null
+     */
+    public String getTokenName(int state) {
+        return this.tokenNames[state];
+    }
+
+    /**
+     * Gives a token name to all the accepting states.
+     */
+    public void setTokenAll(String tokenName) {
+        for (int state = 0; state < this.stateCount; state++) {
+            if (this.accepting[state]) {
+                this.tokenNames[state] = tokenName;
+            }
+        }
+    }
+
+    /**
+     * Copies the states and edges of another NFA after the states of this one.
+     *
+     * @return the number the states of the other NFA are shifted by
+     */
+    public int append(Nfa other) {
+        int offset = this.stateCount;
+        for (int state = 0; state < other.stateCount; state++) {
+            addState();
+            this.accepting[state + offset] = other.accepting[state];
+            this.tokenNames[state + offset] = other.tokenNames[state];
+        }
+        for (int state = 0; state < other.stateCount; state++) {
+            for (int edge = other.firstEdge[state]; edge != NO_EDGE; edge = other.nextEdge[edge]) {
+                addEdge(state + offset, other.edgeLow[edge], other.edgeHigh[edge], other.edgeTarget[edge] + offset);
+            }
+        }
+        return offset;
+    }
+
+    public int getStateCount() {
+        return this.stateCount;
+    }
+
+    public int getEdgeCount() {
+        return this.edgeCount;
+    }
+
+    /**
+     * @return the first edge leaving the state, or NO_EDGE
+     */
+    public int getFirstEdge(int state) {
+        return this.firstEdge[state];
+    }
+
+    /**
+     * @return the edge after the given one leaving the same state, or NO_EDGE
+     */
+    public int getNextEdge(int edge) {
+        return this.nextEdge[edge];
+    }
+
+    public boolean isEpsilon(int edge) {
+        return this.edgeLow[edge] == EPSILON;
+    }
+
+    public int getEdgeLow(int edge) {
+        return this.edgeLow[edge];
+    }
+
+    public int getEdgeHigh(int edge) {
+        return this.edgeHigh[edge];
+    }
+
+    public int getEdgeTarget(int edge) {
+        return this.edgeTarget[edge];
+    }
+
+    public int getStart() {
+        return this.start;
+    }
+
+    public void setStart(int start) {
+        this.start = start;
+    }
+
+    public int getAccept() {
+        return this.accept;
+    }
+
+    public void setAccept(int accept) {
+        this.accept = accept;
+    }
+
+    /**
+     * Flattens an {@link Automaton} into an arena, its start state being 0. The symbols that label
+     * neither characters nor epsilon are dropped.
+     *
+     * @param automaton the automaton, its accepting states carrying their token names
+     * @return the NFA equivalent to the automaton
+     */
+    public static Nfa fromAutomaton(Automaton automaton) {
+        // The states may have been renumbered after being hashed, so they are indexed by identity.
+        // They are numbered in the same order as the DFA constructions always did.
+        IdentityHashMap<State, Integer> numbers = new IdentityHashMap<>();
+        Nfa nfa = new Nfa();
+        numberState(automaton.getStart(), numbers, nfa);
+        for (State state : automaton.getStates()) {
+            numberState(state, numbers, nfa);
+        }
+        for (State state : automaton.getAccepting()) {
+            numberState(state, numbers, nfa);
+        }
+        String epsilonSymbol = automaton.getEpsilonSymbol();
+        for (Map.Entry<Pair<State, String>, HashSet<State>> entry : automaton.getTransitions().entrySet()) {
+            int from = numberState(entry.getKey().getFirst(), numbers, nfa);
+            String symbol = entry.getKey().getSecond();
+            boolean epsilon = symbol.equals(epsilonSymbol);
+            if (!epsilon && !CharRange.isCharSymbol(symbol, epsilonSymbol)) {
+                continue;
+            }
+            for (State state : entry.getValue()) {
+                int to = numberState(state, numbers, nfa);
+                if (epsilon) {
+                    nfa.addEpsilon(from, to);
+                } else {
+                    nfa.addEdge(from, CharRange.from(symbol), CharRange.to(symbol), to);
+                }
+            }
+        }
+        for (State state : automaton.getAccepting()) {
+            nfa.setAccepting(numbers.get(state), state.getTokenName());
+        }
+        nfa.setStart(0);
+        return nfa;
+    }
+
+    private static int numberState(State state, IdentityHashMap<State, Integer> numbers, Nfa nfa) {
+        Integer number = numbers.get(state);
+        if (number == null) {
+            number = nfa.addState();
+            numbers.put(state, number);
+        }
+        return number;
+    }
+
+    /**
+     * Combines NFAs into one, a new start state having an epsilon edge to each of their start
+     * states. Their accepting states stay accepting, with their token names.
+     *
+     * @param nfas the NFAs, not empty
+     * @return the combined NFA
+     */
+    public static Nfa combine(List<Nfa> nfas) {
+        if (nfas.isEmpty()) {
+            throw new IllegalArgumentException("There is no NFA to combine.");
+        }
+        Nfa combined = new Nfa();
+        int start = combined.addState();
+        combined.setStart(start);
+        for (Nfa nfa : nfas) {
+            combined.addEpsilon(start, nfa.start + combined.append(nfa));
+        }
+        return combined;
+    }
+
+    /**
+     * Converts the arena into an {@link Automaton}, the ids of the states being their numbers.
+     *
+     * @param tokenName     the token name of the accept state
+     * @param epsilonSymbol the symbol of the epsilon transitions
+     * @return the automaton equivalent to this NFA
+     */
+    public Automaton toAutomaton(String tokenName, String epsilonSymbol) {
+        Automaton automaton = new Automaton();
+        automaton.setEpsilonSymbol(epsilonSymbol);
+        State[] states = new State[this.stateCount];
+        for (int i = 0; i < this.stateCount; i++) {
+            if (i == this.accept) {
+                states[i] = new State(i, true, tokenName);
+            } else if (this.accepting[i]) {
+                states[i] = new State(i, true, this.tokenNames[i]);
+            } else {
+                states[i] = new State(i, false, null);
+            }
+            automaton.addState(states[i]);
+            if (i == this.accept || this.accepting[i]) {
+                automaton.addFinalState(states[i]);
+            }
+        }
+        automaton.setStart(states[this.start]);
+
+        HashMap<Pair<State, String>, HashSet<State>> transitions = automaton.getTransitions();
+        for (int state = 0; state < this.stateCount; state++) {
+            for (int edge = this.firstEdge[state]; edge != NO_EDGE; edge = this.nextEdge[edge]) {
+                String symbol = epsilonSymbol;
+                if (!isEpsilon(edge)) {
+                    symbol = CharRange.symbol((char) this.edgeLow[edge], (char) this.edgeHigh[edge]);
+                    automaton.getAlphabets().add(symbol);
+                }
+                transitions.computeIfAbsent(new Pair<>(states[state], symbol), k -> new HashSet<>())
+                        .add(states[this.edgeTarget[edge]]);
+            }
+        }
+        return automaton;
+    }
+}
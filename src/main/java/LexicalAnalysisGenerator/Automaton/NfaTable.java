@@ -0,0 +1,169 @@
+package LexicalAnalysisGenerator.Automaton;
+
+import java.util.*;
+
+/**
+ * This class is the flattened form of an NFA that the DFA constructions work on.
+ * The NFA states are numbered 0..n-1, the symbols are split into disjoint elementary ranges
+ * numbered 0..k-1, and the moves of every state are kept in int arrays: moves[s] holds
+ * (symbol, target) pairs, and epsilonMoves[s] the epsilon targets.
+ */
+class NfaTable {
+    final int stateCount;
+    final int start;
+    // The bitsets of NFA states have this many words.
+    final int words;
+    final List<String> symbols;
+    final int[][] moves;
+    final int[][] epsilonMoves;
+    // The rank of the token accepted by every NFA state, or -1 if the state is not accepting.
+    final int[] acceptRanks;
+    // The token name of every accepting NFA state.
+    final String[] tokenNames;
+
+    /**
+     * @param automaton     the NFA
+     * @param tokenPriority the token names ordered from highest to lowest priority, or null; a
+     *                      token is ranked by its index, tokens missing from the list come last
+     */
+    NfaTable(Automaton automaton, List<String> tokenPriority) {
+        this(Nfa.fromAutomaton(automaton), tokenPriority);
+    }
+
+    /**
+     * @param nfa           the NFA, its accepting states carrying the token names
+     * @param tokenPriority the token names ordered from highest to lowest priority, or null; a
+     *                      token is ranked by its index, tokens missing from the list come last
+     */
+    NfaTable(Nfa nfa, List<String> tokenPriority) {
+        HashMap<String, Integer> ranks = new HashMap<>();
+        if (tokenPriority != null) {
+            for (int i = tokenPriority.size() - 1; i >= 0; i--) {
+                ranks.put(tokenPriority.get(i), i);
+            }
+        }
+        int n = nfa.getStateCount();
+        this.stateCount = n;
+        this.start = nfa.getStart();
+        this.words = (n + 63) >>> 6;
+
+        // The edges may be labelled with overlapping ranges, so the DFA works on the disjoint
+        // elementary ranges they split into: the ranges between two consecutive bounds of edges
+        // that some edge covers.
+        int[] bounds = new int[2 * nfa.getEdgeCount()];
+        int boundCount = 0;
+        for (int state = 0; state < n; state++) {
+            for (int edge = nfa.getFirstEdge(state); edge != Nfa.NO_EDGE; edge = nfa.getNextEdge(edge)) {
+                if (!nfa.isEpsilon(edge)) {
+                    bounds[boundCount++] = nfa.getEdgeLow(edge);
+                    bounds[boundCount++] = nfa.getEdgeHigh(edge) + 1;
+                }
+            }
+        }
+        Arrays.sort(bounds, 0, boundCount);
+        int starts = 0;
+        for (int i = 0; i < boundCount; i++) {
+            if (starts == 0 || bounds[i] != bounds[starts - 1]) {
+                bounds[starts++] = bounds[i];
+            }
+        }
+        int[] coverage = new int[starts + 1];
+        for (int state = 0; state < n; state++) {
+            for (int edge = nfa.getFirstEdge(state); edge != Nfa.NO_EDGE; edge = nfa.getNextEdge(edge)) {
+                if (!nfa.isEpsilon(edge)) {
+                    coverage[Arrays.binarySearch(bounds, 0, starts, nfa.getEdgeLow(edge))]++;
+                    coverage[Arrays.binarySearch(bounds, 0, starts, nfa.getEdgeHigh(edge) + 1)]--;
+                }
+            }
+        }
+        // the elementary symbol of every range, or -1 if no edge covers it
+        int[] rangeSymbols = new int[starts];
+        this.symbols = new ArrayList<>();
+        for (int i = 0, covered = 0; i < starts - 1; i++) {
+            covered += coverage[i];
+            rangeSymbols[i] = (covered > 0) ? this.symbols.size() : -1;
+            if (covered > 0) {
+                this.symbols.add(CharRange.symbol((char) bounds[i], (char) (bounds[i + 1] - 1)));
+            }
+        }
+
+        // Flatten the edges of every NFA state into (elementary symbol, target) pairs and epsilon
+        // targets, counting them first.
+        this.moves = new int[n][];
+        this.epsilonMoves = new int[n][];
+        for (int state = 0; state < n; state++) {
+            int moveCount = 0;
+            int epsilonCount = 0;
+            for (int edge = nfa.getFirstEdge(state); edge != Nfa.NO_EDGE; edge = nfa.getNextEdge(edge)) {
+                if (nfa.isEpsilon(edge)) {
+                    epsilonCount++;
+                } else {
+                    moveCount += 2 * (Arrays.binarySearch(bounds, 0, starts, nfa.getEdgeHigh(edge) + 1)
+                            - Arrays.binarySearch(bounds, 0, starts, nfa.getEdgeLow(edge)));
+                }
+            }
+            int[] stateMoves = new int[moveCount];
+            int[] stateEpsilonMoves = new int[epsilonCount];
+            moveCount = 0;
+            epsilonCount = 0;
+            for (int edge = nfa.getFirstEdge(state); edge != Nfa.NO_EDGE; edge = nfa.getNextEdge(edge)) {
+                int to = nfa.getEdgeTarget(edge);
+                if (nfa.isEpsilon(edge)) {
+                    stateEpsilonMoves[epsilonCount++] = to;
+                    continue;
+                }
+                int last = Arrays.binarySearch(bounds, 0, starts, nfa.getEdgeHigh(edge) + 1);
+                for (int i = Arrays.binarySearch(bounds, 0, starts, nfa.getEdgeLow(edge)); i < last; i++) {
+                    stateMoves[moveCount++] = rangeSymbols[i];
+                    stateMoves[moveCount++] = to;
+                }
+            }
+            this.moves[state] = stateMoves;
+            this.epsilonMoves[state] = stateEpsilonMoves;
+        }
+
+        // The accepting NFA states, with the ranks of their tokens
+        this.acceptRanks = new int[n];
+        this.tokenNames = new String[n];
+        Arrays.fill(this.acceptRanks, -1);
+        for (int state = 0; state < n; state++) {
+            if (nfa.isAccepting(state)) {
+                this.tokenNames[state] = nfa.getTokenName(state);
+                this.acceptRanks[state] = ranks.getOrDefault(nfa.getTokenName(state), Integer.MAX_VALUE - 1);
+            }
+        }
+    }
+
+    /**
+     * Maps every character to its class, class i + 1 being the elementary symbol i. The characters
+     * after the end of the array are in class 0, on which no state moves.
+     *
+     * @return the class of every character
+     */
+    char[] classMap() {
+        int size = this.symbols.isEmpty() ? 0 : CharRange.to(this.symbols.get(this.symbols.size() - 1)) + 1;
+        char[] classMap = new char[size];
+        for (int i = 0; i < this.symbols.size(); i++) {
+            Arrays.fill(classMap, CharRange.from(this.symbols.get(i)), CharRange.to(this.symbols.get(i)) + 1,
+                    (char) (i + 1));
+        }
+        return classMap;
+    }
+
+    /**
+     * @return the accepting NFA state of the set with the best ranked token, or -1 if there is none
+     */
+    int preferredAccepting(long[] set) {
+        int preferred = -1;
+        for (int word = 0; word < this.words; word++) {
+            for (long bits = set[word]; bits != 0; bits &= bits - 1) {
+                int state = (word << 6) + Long.numberOfTrailingZeros(bits);
+                if (this.acceptRanks[state] >= 0
+                        && (preferred < 0 || this.acceptRanks[state] < this.acceptRanks[preferred])) {
+                    preferred = state;
+                }
+            }
+        }
+        return preferred;
+    }
+}
@@ -0,0 +1,415 @@
+package LexicalAnalysisGenerator.Automaton;
+
+import java.util.function.BiConsumer;
+
+/**
+ * This class is an immutable map, a hash array mapped trie: adding an entry copies only the path
+ * of nodes to it, every other node being shared with the map it was added to, and two maps are
+ * merged by sharing the subtrees only one of them has.
+ * <p>
+ * The trie takes the hashes of the keys from their most significant bits down, 5 bits a level,
+ * so the keys of an Integer range, hashing to themselves, fill a subtree of their own. Merging the
+ * states of two automata numbered from different ranges only walks the few nodes where the ranges
+ * meet. The entries are iterated in the unsigned order of the hashes.
+ *
+ * @param <K> the type of the keys
+ * @param <V> the type of the values, never null
+ */
+public final class PersistentMap<K, V> {
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+    // the first level takes the top 5 bits of the hashes, the last one the 2 bits left
+    private static final int TOP_SHIFT = Integer.SIZE - BITS;
+    private static final int LAST_SHIFT = TOP_SHIFT % BITS - BITS;
+
+    private static final PersistentMap<?, ?> EMPTY = new PersistentMap<>(null, 0);
+
+    private final Node root;
+    private final int size;
+
+    private PersistentMap(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    public static <K, V> PersistentMap<K, V> empty() {
+        return (PersistentMap<K, V>) EMPTY;
+    }
+
+    public int size() {
+        return this.size;
+    }
+
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    /**
+     * @return the value of the key, or null if the map doesn't contain it
+     */
+    @SuppressWarnings("unchecked")
+    public V get(K key) {
+        return (this.root == null) ? null : (V) this.root.get(key, key.hashCode(), TOP_SHIFT);
+    }
+
+    public boolean containsKey(K key) {
+        return get(key) != null;
+    }
+
+    /**
+     * @return the map with the entry added, or its value replaced
+     */
+    public PersistentMap<K, V> plus(K key, V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("A persistent map can't hold a null value.");
+        }
+        int hash = key.hashCode();
+        if (this.root == null) {
+            return new PersistentMap<>(BitmapNode.leaf(key, value, hash, TOP_SHIFT), 1);
+        }
+        boolean[] added = new boolean[1];
+        Node root = this.root.plus(key, value, hash, TOP_SHIFT, added);
+        return (root == this.root) ? this : new PersistentMap<>(root, added[0] ? this.size + 1 : this.size);
+    }
+
+    /**
+     * Merges two maps, the keys both of them contain keeping the value of this one.
+     *
+     * @return the map of the entries of both maps
+     */
+    public PersistentMap<K, V> plusAll(PersistentMap<K, V> other) {
+        return merge(other, false);
+    }
+
+    /**
+     * Merges two maps that have no key in common.
+     *
+     * @return the map of the entries of both maps, or null if a key is in both
+     */
+    public PersistentMap<K, V> plusAllDisjoint(PersistentMap<K, V> other) {
+        return merge(other, true);
+    }
+
+    private PersistentMap<K, V> merge(PersistentMap<K, V> other, boolean disjoint) {
+        if (other.root == null) {
+            return this;
+        }
+        if (this.root == null) {
+            return other;
+        }
+        int[] duplicates = new int[1];
+        Node root = merge(this.root, other.root, TOP_SHIFT, disjoint, duplicates);
+        return (root == null) ? null : new PersistentMap<>(root, this.size + other.size - duplicates[0]);
+    }
+
+    /**
+     * Calls the action on every entry, in the unsigned order of the hashes of the keys.
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(BiConsumer<? super K, ? super V> action) {
+        if (this.root != null) {
+            this.root.forEach((BiConsumer<Object, Object>) action);
+        }
+    }
+
+    private static int index(int hash, int shift) {
+        return ((shift >= 0) ? (hash >>> shift) : (hash << -shift)) & MASK;
+    }
+
+    /**
+     * Merges two nodes of the same level.
+     *
+     * @return the merged node, or null if the merge is disjoint and a key is in both
+     */
+    private static Node merge(Node a, Node b, int shift, boolean disjoint, int[] duplicates) {
+        if (a == b) {
+            // a shared subtree, all its keys are in both maps
+            if (disjoint) {
+                return null;
+            }
+            duplicates[0] += a.count();
+            return a;
+        }
+        if (!(a instanceof BitmapNode) || !(b instanceof BitmapNode)) {
+            // the hashes of a collision node are all the same, its entries are added one by one
+            Node small = (a instanceof CollisionNode) ? a : b;
+            Node large = (small == a) ? b : a;
+            boolean keepLarge = (large == a);
+            Node[] merged = {large};
+            boolean[] overlap = new boolean[1];
+            small.forEach((key, value) -> {
+                if (overlap[0]) {
+                    return;
+                }
+                int hash = key.hashCode();
+                if (merged[0].get(key, hash, shift) != null) {
+                    overlap[0] = disjoint;
+                    duplicates[0]++;
+                    if (keepLarge) {
+                        return;
+                    }
+                }
+                merged[0] = merged[0].plus(key, value, hash, shift, new boolean[1]);
+            });
+            return overlap[0] ? null : merged[0];
+        }
+        BitmapNode x = (BitmapNode) a;
+        BitmapNode y = (BitmapNode) b;
+        int bitmap = x.bitmap | y.bitmap;
+        Object[] array = new Object[2 * Integer.bitCount(bitmap)];
+        for (int bits = bitmap, i = 0; bits != 0; bits &= bits - 1, i += 2) {
+            int bit = bits & -bits;
+            if ((y.bitmap & bit) == 0) {
+                int j = x.position(bit);
+                array[i] = x.array[j];
+                array[i + 1] = x.array[j + 1];
+            } else if ((x.bitmap & bit) == 0) {
+                int j = y.position(bit);
+                array[i] = y.array[j];
+                array[i + 1] = y.array[j + 1];
+            } else {
+                int j = x.position(bit);
+                int k = y.position(bit);
+                Node child = mergeSlots(x.array[j], x.array[j + 1], y.array[k], y.array[k + 1], shift - BITS,
+                        disjoint, duplicates);
+                if (child == null) {
+                    return null;
+                }
+                if (child instanceof EntryNode) {
+                    array[i] = ((EntryNode) child).key;
+                    array[i + 1] = ((EntryNode) child).value;
+                } else {
+                    array[i + 1] = child;
+                }
+            }
+        }
+        return new BitmapNode(bitmap, array);
+    }
+
+    /**
+     * Merges the slots of two nodes for the same index, each one an entry or a child node.
+     *
+     * @return the child node of the merged slot, an EntryNode if the slot stays an entry
+     */
+    private static Node mergeSlots(Object keyA, Object valueA, Object keyB, Object valueB, int shift,
+                                   boolean disjoint, int[] duplicates) {
+        if (keyA == null && keyB == null) {
+            return merge((Node) valueA, (Node) valueB, shift, disjoint, duplicates);
+        }
+        if (keyA != null && keyB != null && keyA.equals(keyB)) {
+            if (disjoint) {
+                return null;
+            }
+            duplicates[0]++;
+            return new EntryNode(keyA, valueA);
+        }
+        Node node = (keyA == null) ? (Node) valueA : BitmapNode.leaf(keyA, valueA, keyA.hashCode(), shift);
+        if (keyB == null) {
+            return merge(node, (Node) valueB, shift, disjoint, duplicates);
+        }
+        if (node.get(keyB, keyB.hashCode(), shift) != null) {
+            if (disjoint) {
+                return null;
+            }
+            duplicates[0]++;
+            return node;
+        }
+        return node.plus(keyB, valueB, keyB.hashCode(), shift, new boolean[1]);
+    }
+
+    private abstract static class Node {
+        abstract Object get(Object key, int hash, int shift);
+
+        abstract Node plus(Object key, Object value, int hash, int shift, boolean[] added);
+
+        abstract void forEach(BiConsumer<Object, Object> action);
+
+        abstract int count();
+    }
+
+    /**
+     * A node of a level, its bitmap telling which of the 32 indices are used. The slot of an
+     * index is a pair in the array, a key and its value, or null and the child node.
+     */
+    private static final class BitmapNode extends Node {
+        final int bitmap;
+        final Object[] array;
+
+        BitmapNode(int bitmap, Object[] array) {
+            this.bitmap = bitmap;
+            this.array = array;
+        }
+
+        static Node leaf(Object key, Object value, int hash, int shift) {
+            if (shift < LAST_SHIFT) {
+                return new CollisionNode(hash, new Object[]{key, value});
+            }
+            return new BitmapNode(1 << index(hash, shift), new Object[]{key, value});
+        }
+
+        int position(int bit) {
+            return 2 * Integer.bitCount(this.bitmap & (bit - 1));
+        }
+
+        @Override
+        Object get(Object key, int hash, int shift) {
+            int bit = 1 << index(hash, shift);
+            if ((this.bitmap & bit) == 0) {
+                return null;
+            }
+            int i = position(bit);
+            Object k = this.array[i];
+            if (k == null) {
+                return ((Node) this.array[i + 1]).get(key, hash, shift - BITS);
+            }
+            return k.equals(key) ? this.array[i + 1] : null;
+        }
+
+        @Override
+        Node plus(Object key, Object value, int hash, int shift, boolean[] added) {
+            int bit = 1 << index(hash, shift);
+            int i = position(bit);
+            if ((this.bitmap & bit) == 0) {
+                Object[] array = new Object[this.array.length + 2];
+                System.arraycopy(this.array, 0, array, 0, i);
+                array[i] = key;
+                array[i + 1] = value;
+                System.arraycopy(this.array, i, array, i + 2, this.array.length - i);
+                added[0] = true;
+                return new BitmapNode(this.bitmap | bit, array);
+            }
+            Object k = this.array[i];
+            Object v = this.array[i + 1];
+            Node child;
+            if (k == null) {
+                child = ((Node) v).plus(key, value, hash, shift - BITS, added);
+                if (child == v) {
+                    return this;
+                }
+            } else if (k.equals(key)) {
+                if (v == value) {
+                    return this;
+                }
+                Object[] array = this.array.clone();
+                array[i + 1] = value;
+                return new BitmapNode(this.bitmap, array);
+            } else {
+                // two keys in the same slot are pushed down a level
+                child = leaf(k, v, k.hashCode(), shift - BITS).plus(key, value, hash, shift - BITS, added);
+            }
+            Object[] array = this.array.clone();
+            array[i] = null;
+            array[i + 1] = child;
+            return new BitmapNode(this.bitmap, array);
+        }
+
+        @Override
+        void forEach(BiConsumer<Object, Object> action) {
+            for (int i = 0; i < this.array.length; i += 2) {
+                if (this.array[i] == null) {
+                    ((Node) this.array[i + 1]).forEach(action);
+                } else {
+                    action.accept(this.array[i], this.array[i + 1]);
+                }
+            }
+        }
+
+        @Override
+        int count() {
+            int count = 0;
+            for (int i = 0; i < this.array.length; i += 2) {
+                count += (this.array[i] == null) ? ((Node) this.array[i + 1]).count() : 1;
+            }
+            return count;
+        }
+    }
+
+    /**
+     * The keys whose hashes are the same, once all the bits of the hashes are used.
+     */
+    private static final class CollisionNode extends Node {
+        final int hash;
+        final Object[] array;
+
+        CollisionNode(int hash, Object[] array) {
+            this.hash = hash;
+            this.array = array;
+        }
+
+        @Override
+        Object get(Object key, int hash, int shift) {
+            for (int i = 0; i < this.array.length; i += 2) {
+                if (this.array[i].equals(key)) {
+                    return this.array[i + 1];
+                }
+            }
+            return null;
+        }
+
+        @Override
+        Node plus(Object key, Object value, int hash, int shift, boolean[] added) {
+            for (int i = 0; i < this.array.length; i += 2) {
+                if (this.array[i].equals(key)) {
+                    if (this.array[i + 1] == value) {
+                        return this;
+                    }
+                    Object[] array = this.array.clone();
+                    array[i + 1] = value;
+                    return new CollisionNode(this.hash, array);
+                }
+            }
+            Object[] array = new Object[this.array.length + 2];
+            System.arraycopy(this.array, 0, array, 0, this.array.length);
+            array[this.array.length] = key;
+            array[this.array.length + 1] = value;
+            added[0] = true;
+            return new CollisionNode(this.hash, array);
+        }
+
+        @Override
+        void forEach(BiConsumer<Object, Object> action) {
+            for (int i = 0; i < this.array.length; i += 2) {
+                action.accept(this.array[i], this.array[i + 1]);
+            }
+        }
+
+        @Override
+        int count() {
+            return this.array.length / 2;
+        }
+    }
+
+    /**
+     * The result of merging two slots that stays a single entry, never stored in a trie.
+     */
+    private static final class EntryNode extends Node {
+        final Object key;
+        final Object value;
+
+        EntryNode(Object key, Object value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        @Override
+        Object get(Object key, int hash, int shift) {
+            return this.key.equals(key) ? this.value : null;
+        }
+
+        @Override
+        Node plus(Object key, Object value, int hash, int shift, boolean[] added) {
+            throw new IllegalStateException("An entry node is not part of a trie.");
+        }
+
+        @Override
+        void forEach(BiConsumer<Object, Object> action) {
+            action.accept(this.key, this.value);
+        }
+
+        @Override
+        int count() {
+            return 1;
+        }
+    }
+}
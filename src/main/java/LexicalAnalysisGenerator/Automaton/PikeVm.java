@@ -0,0 +1,164 @@
+package LexicalAnalysisGenerator.Automaton;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * This class runs an NFA directly, without determinizing it (a Pike VM without captures).
+ * The current NFA states (the threads) are kept in a sparse set, and a step moves every thread on
+ * the character into the next sparse set, adding the epsilon-closure of every target once. A
+ * step costs at most the size of the NFA, so scanning takes linear time in the input and the
+ * memory is bounded by the NFA, whatever the number of states the DFA would have had.
+ * <p>
+ * The only state of this engine is its current thread set: {@link #getStartState} and
+ * {@link #step} always return 0 (or NO_STATE when no thread is left), and the state number is
+ * only valid until the next call. This class is not thread safe, one scanner at a time can run it;
+ * {@link #copy} gives every other scanner an engine of its own over the same NFA.
+ */
+public class PikeVm implements Dfa {
+    private final NfaTable nfa;
+    private final String[] tokenNames;
+    // The class of every character, class i + 1 being the elementary symbol i of the NFA.
+    private final char[] classMap;
+
+    // The sparse sets of the current and the next threads: the threads are dense[0..size-1], and
+    // a state s is in the set when sparse[s] < size and dense[sparse[s]] == s.
+    private int[] dense;
+    private int[] sparse;
+    private int size;
+    private int[] nextDense;
+    private int[] nextSparse;
+    private int nextSize;
+    private final int[] stack;
+    // The best rank of the tokens accepted by the current threads, or -1.
+    private int acceptRank;
+
+    /**
+     * @param nfa        the combined NFA of the tokens, its accepting states carry the token names
+     * @param tokenNames the names of the tokens ordered from the highest to the lowest priority,
+     *                   their indices are the token types
+     */
+    public PikeVm(Automaton nfa, List<String> tokenNames) {
+        this(new NfaTable(nfa, tokenNames), tokenNames);
+    }
+
+    /**
+     * @param nfa        the combined NFA of the tokens, as {@link Nfa#combine} builds it
+     * @param tokenNames the names of the tokens ordered from the highest to the lowest priority,
+     *                   their indices are the token types
+     */
+    public PikeVm(Nfa nfa, List<String> tokenNames) {
+        this(new NfaTable(nfa, tokenNames), tokenNames);
+    }
+
+    private PikeVm(NfaTable nfa, List<String> tokenNames) {
+        this.nfa = nfa;
+        this.tokenNames = tokenNames.toArray(new String[0]);
+        this.classMap = this.nfa.classMap();
+        int n = this.nfa.stateCount;
+        this.dense = new int[n];
+        this.sparse = new int[n];
+        this.nextDense = new int[n];
+        this.nextSparse = new int[n];
+        this.stack = new int[n];
+    }
+
+    /**
+     * @return a new engine running the same NFA, with a thread set of its own
+     */
+    public PikeVm copy() {
+        return new PikeVm(this.nfa, Arrays.asList(this.tokenNames));
+    }
+
+    @Override
+    public int getStartState() {
+        this.nextSize = 0;
+        this.acceptRank = -1;
+        addThread(this.nfa.start);
+        swap();
+        return 0;
+    }
+
+    @Override
+    public int step(int state, char c) {
+        int symbol = ((c < this.classMap.length) ? this.classMap[c] : 0) - 1;
+        this.nextSize = 0;
+        this.acceptRank = -1;
+        if (symbol >= 0) {
+            for (int i = 0; i < this.size; i++) {
+                int[] stateMoves = this.nfa.moves[this.dense[i]];
+                for (int j = 0; j < stateMoves.length; j += 2) {
+                    if (stateMoves[j] == symbol) {
+                        addThread(stateMoves[j + 1]);
+                    }
+                }
+            }
+        }
+        swap();
+        return (this.size == 0) ? NO_STATE : 0;
+    }
+
+    /**
+     * Adds a state and its epsilon-closure to the next threads.
+     */
+    private void addThread(int state) {
+        if (contains(state)) {
+            return;
+        }
+        add(state);
+        int top = 0;
+        this.stack[top++] = state;
+        while (top > 0) {
+            for (int next : this.nfa.epsilonMoves[this.stack[--top]]) {
+                if (!contains(next)) {
+                    add(next);
+                    this.stack[top++] = next;
+                }
+            }
+        }
+    }
+
+    private boolean contains(int state) {
+        int i = this.nextSparse[state];
+        return i < this.nextSize && this.nextDense[i] == state;
+    }
+
+    private void add(int state) {
+        this.nextSparse[state] = this.nextSize;
+        this.nextDense[this.nextSize++] = state;
+        int rank = this.nfa.acceptRanks[state];
+        if (rank >= 0 && (this.acceptRank < 0 || rank < this.acceptRank)) {
+            this.acceptRank = rank;
+        }
+    }
+
+    private void swap() {
+        int[] dense = this.dense;
+        int[] sparse = this.sparse;
+        this.dense = this.nextDense;
+        this.sparse = this.nextSparse;
+        this.size = this.nextSize;
+        this.nextDense = dense;
+        this.nextSparse = sparse;
+    }
+
+    /**
+     * @return the token accepted by the current threads, or NO_TOKEN
+     */
+    @Override
+    public int getAcceptToken(int state) {
+        // a token is ranked by its index in the token names, that is its type
+        return (this.acceptRank >= 0 && this.acceptRank < this.tokenNames.length) ? this.acceptRank : NO_TOKEN;
+    }
+
+    @Override
+    public String getTokenName(int tokenType) {
+        return this.tokenNames[tokenType];
+    }
+
+    @Override
+    public List<String> getTokenNames() {
+        return Collections.unmodifiableList(Arrays.asList(this.tokenNames));
+    }
+}
@@ -0,0 +1,19 @@
+package LexicalAnalysisGenerator.Automaton;
+
+/**
+ * Thrown when the construction of a DFA would create more states than it is allowed to.
+ */
+public class StateLimitExceededException extends RuntimeException {
+    private static final long serialVersionUID = 1L;
+
+    private final int stateLimit;
+
+    public StateLimitExceededException(int stateLimit) {
+        super("The DFA has more than " + stateLimit + " states.");
+        this.stateLimit = stateLimit;
+    }
+
+    public int getStateLimit() {
+        return this.stateLimit;
+    }
+}
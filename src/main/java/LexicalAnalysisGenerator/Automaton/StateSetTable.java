@@ -0,0 +1,95 @@
+package LexicalAnalysisGenerator.Automaton;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * An open addressing hash table interning the sets of NFA states, it maps every bitset to the
+ * number of its DFA state. The sets are compared only when their 64-bit fingerprints match.
+ */
+class StateSetTable {
+    private long[] fingerprints = new long[64];
+    private int[] ids = new int[64];
+    private int size;
+
+    StateSetTable() {
+        Arrays.fill(this.ids, -1);
+    }
+
+    /**
+     * @return the number of the set, a new set is numbered and appended to the list
+     */
+    int intern(long[] set, List<long[]> sets) {
+        int slot = find(set, sets);
+        if (this.ids[slot] >= 0) {
+            return this.ids[slot];
+        }
+        int id = sets.size();
+        sets.add(set);
+        this.fingerprints[slot] = fingerprint(set);
+        this.ids[slot] = id;
+        if (++this.size * 2 > this.ids.length) {
+            grow();
+        }
+        return id;
+    }
+
+    /**
+     * @return the number of the set, or -1 if it was never interned
+     */
+    int get(long[] set, List<long[]> sets) {
+        return this.ids[find(set, sets)];
+    }
+
+    /**
+     * Forgets all the interned sets.
+     */
+    void clear() {
+        Arrays.fill(this.ids, -1);
+        this.size = 0;
+    }
+
+    /**
+     * @return the slot holding the set, or the empty slot where it would be inserted
+     */
+    private int find(long[] set, List<long[]> sets) {
+        long fingerprint = fingerprint(set);
+        int mask = this.ids.length - 1;
+        int slot = (int) (fingerprint ^ (fingerprint >>> 32)) & mask;
+        while (this.ids[slot] >= 0) {
+            if (this.fingerprints[slot] == fingerprint && Arrays.equals(sets.get(this.ids[slot]), set)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void grow() {
+        long[] oldFingerprints = this.fingerprints;
+        int[] oldIds = this.ids;
+        this.fingerprints = new long[oldIds.length * 2];
+        this.ids = new int[oldIds.length * 2];
+        Arrays.fill(this.ids, -1);
+        int mask = this.ids.length - 1;
+        for (int i = 0; i < oldIds.length; i++) {
+            if (oldIds[i] >= 0) {
+                int slot = (int) (oldFingerprints[i] ^ (oldFingerprints[i] >>> 32)) & mask;
+                while (this.ids[slot] >= 0) {
+                    slot = (slot + 1) & mask;
+                }
+                this.fingerprints[slot] = oldFingerprints[i];
+                this.ids[slot] = oldIds[i];
+            }
+        }
+    }
+
+    private static long fingerprint(long[] set) {
+        long hash = 0x9E3779B97F4A7C15L;
+        for (long word : set) {
+            hash = (hash ^ word) * 0xBF58476D1CE4E5B9L;
+            hash ^= hash >>> 31;
+        }
+        return hash;
+    }
+}
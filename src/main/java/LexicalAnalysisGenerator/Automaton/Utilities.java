@@ -19,7 +19,9 @@ public class Utilities {
         // the copy will be used here.
         Automaton copyA1 = copyAutomaton(a1);
         Automaton copyA2 = copyAutomaton(a2);
-        copyA1.giveNewIdsAll(copyA1.getStates(), false);
+        // the first automaton takes the ids -1, -2, ... and the second one 0, 1, ... so that no
+        // two states of them are equal.
+        copyA1.giveNewIdsAll(copyA1.getStates(), -1, false);
         copyA2.giveNewIdsAll(copyA2.getStates(), true);
 
         // Create a new automaton
@@ -77,7 +79,9 @@ public class Utilities {
         // the copy will be used here.
         Automaton copyA1 = copyAutomaton(a1);
         Automaton copyA2 = copyAutomaton(a2);
-        copyA1.giveNewIdsAll(copyA1.getStates(), false);
+        // the first automaton takes the ids -1, -2, ... and the second one 0, 1, ... so that no
+        // two states of them are equal.
+        copyA1.giveNewIdsAll(copyA1.getStates(), -1, false);
         copyA2.giveNewIdsAll(copyA2.getStates(), true);
 
         // Create a new automaton
@@ -276,7 +280,7 @@ public class Utilities {
             Automaton copyA = copyAutomaton(automaton);
             idCount += copyA.getStates().size();
             copyA.giveNewIdsAll(copyA.getStates(), idCount, false);
-            copyAutomata.add(copyAutomaton(automaton));
+            copyAutomata.add(copyA);
         }
 
         // Create a new automaton
@@ -310,6 +314,168 @@ public class Utilities {
         return combinedAutomaton;
     }
 
+    /**
+     * Combines two immutable automata using the union operation. The new automaton shares the
+     * states of a1 and a2, only its start state is new.
+     *
+     * @param a1           the first automaton
+     * @param a2           the second automaton
+     * @param newTokenName the token name for the new automaton
+     * @return a new automaton that is the union of a1 and a2
+     */
+    public ImmutableAutomaton union(ImmutableAutomaton a1, ImmutableAutomaton a2, String newTokenName) {
+        Pair<ImmutableAutomaton, PersistentMap<Integer, ImmutableAutomaton.Edges>> merged = mergeStates(a1, a2);
+        a2 = merged.getFirst();
+        if (newTokenName == null) {
+            newTokenName = "(" + a1.getToken() + "|" + a2.getToken() + ")";
+        }
+        int start = ImmutableAutomaton.newIds(1);
+        String epsilon = a1.epsilonSymbol;
+        PersistentMap<Integer, ImmutableAutomaton.Edges> states = merged.getSecond()
+                .plus(start, ImmutableAutomaton.Edges.NONE.with(epsilon, a1.start).with(epsilon, a2.start));
+        return new ImmutableAutomaton(states, a1.alphabets.plusAll(a2.alphabets), start,
+                withTokenName(a1.accepting.plusAll(a2.accepting), newTokenName), epsilon);
+    }
+
+    /**
+     * Combines two immutable automata using the concatenation operation. The new automaton shares
+     * the states of a1 and a2, only the accepting states of a1 get a new edge.
+     *
+     * @param a1           the first automaton
+     * @param a2           the second automaton
+     * @param newTokenName the token name for the new automaton
+     * @return a new automaton that is the concatenation of a1 and a2
+     */
+    public ImmutableAutomaton concatenate(ImmutableAutomaton a1, ImmutableAutomaton a2, String newTokenName) {
+        Pair<ImmutableAutomaton, PersistentMap<Integer, ImmutableAutomaton.Edges>> merged = mergeStates(a1, a2);
+        a2 = merged.getFirst();
+        if (newTokenName == null) {
+            newTokenName = "(" + a1.getToken() + a2.getToken() + ")";
+        }
+        PersistentMap<Integer, ImmutableAutomaton.Edges> states = addEdges(merged.getSecond(), a1.accepting,
+                a1.epsilonSymbol, a2.start);
+        return new ImmutableAutomaton(states, a1.alphabets.plusAll(a2.alphabets), a1.start,
+                withTokenName(a2.accepting, newTokenName), a1.epsilonSymbol);
+    }
+
+    /**
+     * Creates the Kleene closure of an immutable automaton, sharing its states.
+     *
+     * @param a            the automaton
+     * @param newTokenName the token name for the new automaton
+     * @return a new automaton that is the Kleene closure of a
+     */
+    public ImmutableAutomaton kleeneClosure(ImmutableAutomaton a, String newTokenName) {
+        return closure(a, newTokenName, true);
+    }
+
+    /**
+     * Creates the positive closure of an immutable automaton, sharing its states.
+     *
+     * @param a            the automaton
+     * @param newTokenName the token name for the new automaton
+     * @return a new automaton that is the positive closure of a
+     */
+    public ImmutableAutomaton positiveClosure(ImmutableAutomaton a, String newTokenName) {
+        return closure(a, newTokenName, false);
+    }
+
+    private ImmutableAutomaton closure(ImmutableAutomaton a, String newTokenName, boolean kleene) {
+        if (newTokenName == null) {
+            newTokenName = "(" + a.getToken() + ")" + (kleene ? "*" : "+");
+        }
+        int start = ImmutableAutomaton.newIds(2);
+        int accepting = start + 1;
+        String epsilon = a.epsilonSymbol;
+        ImmutableAutomaton.Edges startEdges = ImmutableAutomaton.Edges.NONE.with(epsilon, a.start);
+        if (kleene) {
+            startEdges = startEdges.with(epsilon, accepting);
+        }
+        PersistentMap<Integer, ImmutableAutomaton.Edges> states = addEdges(a.states, a.accepting, epsilon, accepting)
+                .plus(start, startEdges)
+                .plus(accepting, ImmutableAutomaton.Edges.NONE.with(epsilon, start));
+        return new ImmutableAutomaton(states, a.alphabets, start,
+                PersistentMap.<Integer, String>empty().plus(accepting, newTokenName), epsilon);
+    }
+
+    /**
+     * Combines a list of immutable automata, sharing their states.
+     *
+     * @param automataList the list of automata
+     * @param tokenNames   the list of token names, a null name leaves the token names of its
+     *                     automaton as they are
+     * @return a new automaton that is the combination of the automata in the list
+     */
+    public ImmutableAutomaton combineImmutableAutomataList(List<ImmutableAutomaton> automataList, List<String> tokenNames) {
+        if (automataList.isEmpty() || tokenNames.size() != automataList.size()) {
+            throw new IllegalArgumentException(
+                    "Automata list and token names list must have the same size, and they cannot be empty.");
+        }
+        String epsilon = automataList.get(0).epsilonSymbol;
+        PersistentMap<Integer, ImmutableAutomaton.Edges> states = PersistentMap.empty();
+        PersistentMap<String, Boolean> alphabets = PersistentMap.empty();
+        PersistentMap<Integer, String> accepting = PersistentMap.empty();
+        ImmutableAutomaton.Edges startEdges = ImmutableAutomaton.Edges.NONE;
+        for (int i = 0; i < automataList.size(); i++) {
+            ImmutableAutomaton a = automataList.get(i);
+            PersistentMap<Integer, ImmutableAutomaton.Edges> merged = states.plusAllDisjoint(a.states);
+            if (merged == null) {
+                a = a.renumbered();
+                merged = states.plusAllDisjoint(a.states);
+            }
+            states = merged;
+            alphabets = alphabets.plusAll(a.alphabets);
+            String tokenName = tokenNames.get(i);
+            accepting = accepting.plusAll((tokenName == null) ? a.accepting : withTokenName(a.accepting, tokenName));
+            startEdges = startEdges.with(epsilon, a.start);
+        }
+        int start = ImmutableAutomaton.newIds(1);
+        return new ImmutableAutomaton(states.plus(start, startEdges), alphabets, start, accepting, epsilon);
+    }
+
+    /**
+     * Merges the states of the operands of a combinator, numbering the states of the second one
+     * again if they have states in common.
+     *
+     * @return the second operand, numbered again or not, and the merged states
+     */
+    private Pair<ImmutableAutomaton, PersistentMap<Integer, ImmutableAutomaton.Edges>> mergeStates(
+            ImmutableAutomaton a1, ImmutableAutomaton a2) {
+        PersistentMap<Integer, ImmutableAutomaton.Edges> states = a1.states.plusAllDisjoint(a2.states);
+        if (states == null) {
+            a2 = a2.renumbered();
+            states = a1.states.plusAllDisjoint(a2.states);
+        }
+        return new Pair<>(a2, states);
+    }
+
+    /**
+     * @return the states with an edge added from every one of the given states to the target
+     */
+    private PersistentMap<Integer, ImmutableAutomaton.Edges> addEdges(
+            PersistentMap<Integer, ImmutableAutomaton.Edges> states, PersistentMap<Integer, String> from,
+            String symbol, int target) {
+        List<Integer> sources = new ArrayList<>(from.size());
+        from.forEach((id, tokenName) -> sources.add(id));
+        for (int id : sources) {
+            states = states.plus(id, states.get(id).with(symbol, target));
+        }
+        return states;
+    }
+
+    /**
+     * @return the accepting states, all of them carrying the token name
+     */
+    private PersistentMap<Integer, String> withTokenName(PersistentMap<Integer, String> accepting,
+                                                          String tokenName) {
+        List<Integer> ids = new ArrayList<>(accepting.size());
+        accepting.forEach((id, name) -> ids.add(id));
+        for (int id : ids) {
+            accepting = accepting.plus(id, tokenName);
+        }
+        return accepting;
+    }
+
     /**
      * Creates a deep copy of the given automaton.
      *
@@ -323,10 +489,13 @@ public class Utilities {
         // Copy epsilon symbol and other properties
         copiedAutomaton.setEpsilonSymbol(originalAutomaton.getEpsilonSymbol());
 
-        // Copy states
+        // Copy states, and index the copies by id so that every transition endpoint is resolved
+        // in constant time
+        HashMap<Integer, State> copiedStates = new HashMap<>();
         for (State originalState : originalAutomaton.getStates()) {
             State copiedState = originalState.copyState();
             copiedAutomaton.addState(copiedState);
+            copiedStates.put(copiedState.getId(), copiedState);
         }
 
         // Copy alphabets
@@ -337,11 +506,11 @@ public class Utilities {
         // Copy transitions
         for (Map.Entry<Pair<State, String>, HashSet<State>> entry : originalAutomaton.getTransitions().entrySet()) {
             Pair<State, String> transitionKey = entry.getKey();
-            State fromState = copiedAutomaton.getStateById(transitionKey.getFirst().getId());
+            State fromState = copiedStates.get(transitionKey.getFirst().getId());
             String transitionSymbol = transitionKey.getSecond();
             HashSet<State> toStates = new HashSet<>();
             for (State originalToState : entry.getValue()) {
-                State toState = copiedAutomaton.getStateById(originalToState.getId());
+                State toState = copiedStates.get(originalToState.getId());
                 toStates.add(toState);
             }
 
@@ -350,18 +519,75 @@ public class Utilities {
 
         // Copy accepting states
         for (State originalAcceptingState : originalAutomaton.getAccepting()) {
-            State copiedAcceptingState = copiedAutomaton.getStateById(originalAcceptingState.getId());
+            State copiedAcceptingState = copiedStates.get(originalAcceptingState.getId());
             copiedAutomaton.addFinalState(copiedAcceptingState);
         }
 
         // Copy start state
         State originalStartState = originalAutomaton.getStart();
-        State copiedStartState = copiedAutomaton.getStateById(originalStartState.getId());
+        State copiedStartState = copiedStates.get(originalStartState.getId());
         copiedAutomaton.setStart(copiedStartState);
 
         return copiedAutomaton;
     }
 
+    /**
+     * Runs an automaton, a DFA or an NFA, on a word. The states may have been renumbered since
+     * they were hashed, so the transitions are only iterated, and the states compared by identity.
+     *
+     * @param automaton the automaton
+     * @param word      the word
+     * @return true if the automaton accepts the whole word
+     */
+    public boolean accepts(Automaton automaton, String word) {
+        String epsilonSymbol = automaton.getEpsilonSymbol();
+        Map<State, List<Pair<String, HashSet<State>>>> edges = new IdentityHashMap<>();
+        for (Map.Entry<Pair<State, String>, HashSet<State>> entry : automaton.getTransitions().entrySet()) {
+            edges.computeIfAbsent(entry.getKey().getFirst(), k -> new ArrayList<>())
+                    .add(new Pair<>(entry.getKey().getSecond(), entry.getValue()));
+        }
+
+        Set<State> current = Collections.newSetFromMap(new IdentityHashMap<>());
+        current.add(automaton.getStart());
+        for (int i = 0; ; i++) {
+            // close the set under the epsilon edges
+            ArrayDeque<State> stack = new ArrayDeque<>(current);
+            while (!stack.isEmpty()) {
+                for (Pair<String, HashSet<State>> edge : edges.getOrDefault(stack.pop(), Collections.emptyList())) {
+                    if (edge.getFirst().equals(epsilonSymbol)) {
+                        for (State target : edge.getSecond()) {
+                            if (current.add(target)) {
+                                stack.push(target);
+                            }
+                        }
+                    }
+                }
+            }
+            if (i == word.length() || current.isEmpty()) {
+                break;
+            }
+            char c = word.charAt(i);
+            Set<State> next = Collections.newSetFromMap(new IdentityHashMap<>());
+            for (State state : current) {
+                for (Pair<String, HashSet<State>> edge : edges.getOrDefault(state, Collections.emptyList())) {
+                    if (CharRange.isCharSymbol(edge.getFirst(), epsilonSymbol) && CharRange.contains(edge.getFirst(), c)) {
+                        next.addAll(edge.getSecond());
+                    }
+                }
+            }
+            current = next;
+        }
+
+        Set<State> accepting = Collections.newSetFromMap(new IdentityHashMap<>());
+        accepting.addAll(automaton.getAccepting());
+        for (State state : current) {
+            if (accepting.contains(state)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public boolean containsAcceptingState(HashSet<State> stateSet, Automaton a) {
         for (State state : stateSet) {
             if (a.isAcceptingState(state)) {
@@ -0,0 +1,186 @@
+package LexicalAnalysisGenerator.Creation;
+
+import LexicalAnalysisGenerator.Automaton.Automaton;
+import LexicalAnalysisGenerator.Automaton.State;
+
+import java.util.*;
+
+/**
+ * This class builds the minimal acyclic DFA of a sorted list of words incrementally (the
+ * algorithm of Daciuk, Mihov, Watson and Watson), every word being accepted with its own token.
+ * The words are added as a trie, but as they come in order, the branch of the previous word
+ * after the prefix it shares with the next one is final: its states are replaced by equivalent
+ * states already built, or registered as new ones, from the deepest up. Two states are equivalent
+ * if they accept the same token and have the same transitions, and a state is registered after
+ * its children, so the register only needs to compare transitions. Building the DFA of n
+ * characters takes O(n) (times the log of the alphabet), and the DFA is minimal at every step,
+ * without the NFA, the subset construction or the minimization of the regex pipeline.
+ * <p>
+ * When every word has a token of its own, as the keywords of a lexer, only the states of the same
+ * token can be merged, and the DFA is the trie of the words.
+ */
+public class AcyclicDfaBuilder {
+    private final Node root;
+    private final HashMap<String, Node> register;
+    private String previousWord;
+    private boolean built;
+
+    public AcyclicDfaBuilder() {
+        this.root = new Node();
+        this.register = new HashMap<>();
+    }
+
+    /**
+     * Builds the minimal acyclic DFA of words, every word being its own token.
+     *
+     * @param words         the words, in any order
+     * @param epsilonSymbol the epsilon symbol of the automaton
+     * @return the DFA accepting the words
+     */
+    public static Automaton build(Collection<String> words, String epsilonSymbol) {
+        AcyclicDfaBuilder builder = new AcyclicDfaBuilder();
+        for (String word : new TreeSet<>(words)) {
+            builder.add(word, word);
+        }
+        return builder.build(epsilonSymbol);
+    }
+
+    /**
+     * Adds a word. The words must be added in the order of {@link String#compareTo}, a word added
+     * again keeping its first token.
+     *
+     * @param word      the word, not empty
+     * @param tokenName the token the DFA accepts the word with
+     */
+    public void add(String word, String tokenName) {
+        if (this.built) {
+            throw new IllegalStateException("The DFA is already built.");
+        }
+        if (word.isEmpty()) {
+            throw new IllegalArgumentException("The empty word can't be added.");
+        }
+        if (this.previousWord != null) {
+            int order = word.compareTo(this.previousWord);
+            if (order < 0) {
+                throw new IllegalArgumentException("The word \"" + word + "\" comes before \"" + this.previousWord + "\".");
+            }
+            if (order == 0) {
+                return;
+            }
+        }
+        this.previousWord = word;
+
+        // the prefix shared with the previous word is the only part of the DFA not registered yet
+        Node node = this.root;
+        int i = 0;
+        while (i < word.length()) {
+            Node next = node.edges.get(word.charAt(i));
+            if (next == null) {
+                break;
+            }
+            node = next;
+            i++;
+        }
+        if (!node.edges.isEmpty()) {
+            replaceOrRegister(node);
+        }
+        for (; i < word.length(); i++) {
+            Node next = new Node();
+            node.edges.put(word.charAt(i), next);
+            node = next;
+        }
+        node.tokenName = tokenName;
+    }
+
+    /**
+     * Replaces the last child of a state by an equivalent registered state, or registers it,
+     * after doing the same to the children of the child.
+     */
+    private void replaceOrRegister(Node state) {
+        Map.Entry<Character, Node> last = state.edges.lastEntry();
+        Node child = last.getValue();
+        if (!child.edges.isEmpty()) {
+            replaceOrRegister(child);
+        }
+        String signature = child.signature();
+        Node equivalent = this.register.get(signature);
+        if (equivalent != null) {
+            state.edges.put(last.getKey(), equivalent);
+        } else {
+            child.id = this.register.size();
+            this.register.put(signature, child);
+        }
+    }
+
+    /**
+     * Registers the last word, then converts the DFA into an {@link Automaton}, its start state
+     * being 0. No word can be added afterwards.
+     *
+     * @param epsilonSymbol the epsilon symbol of the automaton
+     * @return the DFA, its accepting states carrying the tokens of the words
+     */
+    public Automaton build(String epsilonSymbol) {
+        if (!this.root.edges.isEmpty()) {
+            replaceOrRegister(this.root);
+        }
+        this.built = true;
+
+        Automaton automaton = new Automaton();
+        automaton.setEpsilonSymbol(epsilonSymbol);
+        IdentityHashMap<Node, State> states = new IdentityHashMap<>();
+        ArrayDeque<Node> queue = new ArrayDeque<>();
+        State start = new State(0, false, null);
+        states.put(this.root, start);
+        automaton.addState(start);
+        automaton.setStart(start);
+        queue.add(this.root);
+        while (!queue.isEmpty()) {
+            Node node = queue.poll();
+            State state = states.get(node);
+            for (Map.Entry<Character, Node> edge : node.edges.entrySet()) {
+                State target = states.get(edge.getValue());
+                if (target == null) {
+                    Node child = edge.getValue();
+                    target = new State(states.size(), child.tokenName != null, child.tokenName);
+                    states.put(child, target);
+                    automaton.addState(target);
+                    if (child.tokenName != null) {
+                        automaton.addFinalState(target);
+                    }
+                    queue.add(child);
+                }
+                String symbol = String.valueOf(edge.getKey());
+                automaton.getAlphabets().add(symbol);
+                automaton.addTransitions(state, symbol, new HashSet<>(Collections.singletonList(target)));
+            }
+        }
+        return automaton;
+    }
+
+    /**
+     * @return the number of states of the DFA, once it is built
+     */
+    public int getStateCount() {
+        return this.register.size() + 1;
+    }
+
+    private static final class Node {
+        final TreeMap<Character, Node> edges = new TreeMap<>();
+        String tokenName;
+        // the number of the state in the register, -1 until it is registered
+        int id = -1;
+
+        /**
+         * @return the token and the transitions of the state, its children being registered
+         */
+        String signature() {
+            StringBuilder signature = new StringBuilder();
+            signature.append(this.tokenName == null ? "" : this.tokenName).append('\0')
+                    .append(this.tokenName == null ? '0' : '1');
+            for (Map.Entry<Character, Node> edge : this.edges.entrySet()) {
+                signature.append(edge.getKey()).append(edge.getValue().id).append(',');
+            }
+            return signature.toString();
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package LexicalAnalysisGenerator.Creation;
+
+/**
+ * The ways a regular expression can be turned into a DFA.
+ */
+public enum ConstructionStrategy {
+    /**
+     * Builds the Thompson epsilon-NFA, then converts it with the subset construction.
+     */
+    THOMPSON,
+    /**
+     * Builds the DFA directly from the syntax tree with the followpos construction.
+     */
+    FOLLOWPOS
+}
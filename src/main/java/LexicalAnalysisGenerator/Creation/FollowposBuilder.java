@@ -0,0 +1,387 @@
+package LexicalAnalysisGenerator.Creation;
+
+import LexicalAnalysisGenerator.Automaton.Automaton;
+import LexicalAnalysisGenerator.Automaton.CharRange;
+import LexicalAnalysisGenerator.Automaton.Pair;
+import LexicalAnalysisGenerator.Automaton.State;
+import LexicalAnalysisGenerator.Automaton.StateLimitExceededException;
+
+import java.util.*;
+
+/**
+ * This class builds the DFA of a syntax tree of a {@link RegexForest} directly, without an
+ * epsilon-NFA (the followpos construction of Aho, Sethi and Ullman).
+ * Every occurrence of a class in the tree is a position labelled with its ranges, and the regex
+ * is augmented with an end marker position. The nullable, firstpos and lastpos of every node are
+ * computed bottom up, followpos(p) being the positions that can follow p in a match. A DFA state
+ * is a set of positions: the start state is firstpos of the root, and a state moves on a character
+ * to the union of followpos(p) over its positions p whose ranges contain the character.
+ * The states that contain the end marker are accepting.
+ * <p>
+ * A name stands for the automaton of an earlier rule, that has no syntax tree. Every edge of the
+ * automaton is a position labelled with the range of the edge, followed by the edges leaving its
+ * target: the first positions of the name are the edges leaving its start state, and the last ones
+ * the edges leading to an accepting state (epsilon edges being followed in both cases).
+ */
+public class FollowposBuilder {
+    // The ranges of every position, as pairs of characters low, high
+    private final List<String> ranges;
+    private final List<BitSet> followpos;
+    // The positions of the automata of the names, every occurrence of a name having its own
+    private final IdentityHashMap<Automaton, NameAutomaton> nameAutomata;
+
+    public FollowposBuilder() {
+        this.ranges = new ArrayList<>();
+        this.followpos = new ArrayList<>();
+        this.nameAutomata = new IdentityHashMap<>();
+    }
+
+    /**
+     * Builds the DFA of a node of a forest.
+     *
+     * @param forest        the forest
+     * @param root          the node
+     * @param tokenName     the token name of the accepting states
+     * @param epsilonSymbol the epsilon symbol of the automaton
+     * @param stateLimit    the maximum number of DFA states
+     * @return the DFA, its states being numbered from 0 (the start state)
+     * @throws StateLimitExceededException if the DFA has more than stateLimit states
+     */
+    public Automaton build(RegexForest forest, int root, String tokenName, String epsilonSymbol, int stateLimit) {
+        this.ranges.clear();
+        this.followpos.clear();
+        // The tree is only read while the forest is locked, the DFA is built from the positions
+        Fragment fragment;
+        synchronized (forest) {
+            fragment = visit(forest, root);
+        }
+        int positionCount = this.ranges.size();
+        int end = positionCount;
+        // The end marker follows the last positions of the regex
+        for (int p = fragment.last.nextSetBit(0); p >= 0; p = fragment.last.nextSetBit(p + 1)) {
+            this.followpos.get(p).set(end);
+        }
+
+        // Split the ranges of the positions into disjoint elementary ranges, and find the
+        // elementary ranges of every position.
+        TreeSet<Integer> boundarySet = new TreeSet<>();
+        for (String positionRanges : this.ranges) {
+            for (int i = 0; i < positionRanges.length(); i += 2) {
+                boundarySet.add((int) positionRanges.charAt(i));
+                boundarySet.add(positionRanges.charAt(i + 1) + 1);
+            }
+        }
+        int[] boundaries = new int[boundarySet.size()];
+        int boundaryCount = 0;
+        for (int boundary : boundarySet) {
+            boundaries[boundaryCount++] = boundary;
+        }
+        int[][] positionSymbols = new int[positionCount][];
+        // the gaps between the ranges are elementary ranges too, but no position has them
+        boolean[] used = new boolean[Math.max(boundaryCount - 1, 0)];
+        for (int p = 0; p < positionCount; p++) {
+            String positionRanges = this.ranges.get(p);
+            int count = 0;
+            for (int i = 0; i < positionRanges.length(); i += 2) {
+                count += Arrays.binarySearch(boundaries, positionRanges.charAt(i + 1) + 1)
+                        - Arrays.binarySearch(boundaries, positionRanges.charAt(i));
+            }
+            positionSymbols[p] = new int[count];
+            count = 0;
+            for (int i = 0; i < positionRanges.length(); i += 2) {
+                int last = Arrays.binarySearch(boundaries, positionRanges.charAt(i + 1) + 1);
+                for (int symbol = Arrays.binarySearch(boundaries, positionRanges.charAt(i)); symbol < last; symbol++) {
+                    positionSymbols[p][count++] = symbol;
+                    used[symbol] = true;
+                }
+            }
+        }
+        String[] symbols = new String[Math.max(boundaryCount - 1, 0)];
+        for (int i = 0; i < symbols.length; i++) {
+            symbols[i] = CharRange.symbol((char) boundaries[i], (char) (boundaries[i + 1] - 1));
+        }
+
+        // Construct the DFA states, every set of positions being discovered once
+        Automaton dfa = new Automaton();
+        dfa.setEpsilonSymbol(epsilonSymbol);
+        HashMap<BitSet, State> dfaStates = new HashMap<>();
+        List<BitSet> unmarked = new ArrayList<>();
+        BitSet start = (BitSet) fragment.first.clone();
+        if (fragment.nullable) {
+            start.set(end);
+        }
+        dfa.setStart(newState(dfa, dfaStates, unmarked, start, end, tokenName));
+        BitSet[] moves = new BitSet[symbols.length];
+        for (int i = 0; i < unmarked.size(); i++) {
+            if (unmarked.size() > stateLimit) {
+                throw new StateLimitExceededException(stateLimit);
+            }
+            BitSet positionSet = unmarked.get(i);
+            State from = dfaStates.get(positionSet);
+            for (int p = positionSet.nextSetBit(0); p >= 0 && p < end; p = positionSet.nextSetBit(p + 1)) {
+                for (int symbol : positionSymbols[p]) {
+                    if (moves[symbol] == null) {
+                        moves[symbol] = new BitSet();
+                    }
+                    moves[symbol].or(this.followpos.get(p));
+                }
+            }
+            for (int symbol = 0; symbol < symbols.length; symbol++) {
+                if (!used[symbol]) {
+                    continue;
+                }
+                // no move on this symbol, it goes to the empty set, as in the subset construction
+                BitSet next = (moves[symbol] != null) ? moves[symbol] : new BitSet();
+                State to = dfaStates.get(next);
+                if (to == null) {
+                    to = newState(dfa, dfaStates, unmarked, next, end, tokenName);
+                }
+                dfa.getAlphabets().add(symbols[symbol]);
+                dfa.getTransitions().put(new Pair<>(from, symbols[symbol]),
+                        new HashSet<>(Collections.singletonList(to)));
+                moves[symbol] = null;
+            }
+        }
+        return dfa;
+    }
+
+    private State newState(Automaton dfa, HashMap<BitSet, State> dfaStates, List<BitSet> unmarked,
+                           BitSet positionSet, int end, String tokenName) {
+        boolean isAccepting = positionSet.get(end);
+        State state = new State(unmarked.size(), isAccepting, isAccepting ? tokenName : null);
+        dfaStates.put(positionSet, state);
+        unmarked.add(positionSet);
+        dfa.addState(state);
+        if (isAccepting) {
+            dfa.getAccepting().add(state);
+        }
+        return state;
+    }
+
+    /**
+     * Numbers the positions of an occurrence of a node and computes its nullable, firstpos and
+     * lastpos, adding the followpos of its positions. A shared node is visited at every occurrence,
+     * as its positions are different ones. The concatenations and the unions are lists, they are
+     * walked in a loop.
+     */
+    private Fragment visit(RegexForest forest, int node) {
+        switch (forest.kind(node)) {
+            case RegexForest.EPSILON:
+                return new Fragment(true, new BitSet(), new BitSet());
+            case RegexForest.CLASS: {
+                BitSet position = new BitSet();
+                position.set(newPosition(forest.ranges(node)));
+                return new Fragment(false, position, position);
+            }
+            case RegexForest.NAME:
+                return visitName(forest.automaton(node));
+            case RegexForest.KLEENE:
+            case RegexForest.POSITIVE: {
+                Fragment child = visit(forest, forest.left(node));
+                addFollowpos(child.last, child.first);
+                return new Fragment(forest.kind(node) == RegexForest.KLEENE || child.nullable, child.first,
+                        child.last);
+            }
+            case RegexForest.CONCATENATION: {
+                Fragment fragment = visit(forest, forest.left(node));
+                int rest = forest.right(node);
+                while (true) {
+                    boolean isLast = forest.kind(rest) != RegexForest.CONCATENATION;
+                    Fragment factor = visit(forest, isLast ? rest : forest.left(rest));
+                    addFollowpos(fragment.last, factor.first);
+                    BitSet first = fragment.nullable ? union(fragment.first, factor.first) : fragment.first;
+                    BitSet last = factor.nullable ? union(fragment.last, factor.last) : factor.last;
+                    fragment = new Fragment(fragment.nullable && factor.nullable, first, last);
+                    if (isLast) {
+                        return fragment;
+                    }
+                    rest = forest.right(rest);
+                }
+            }
+            default: {
+                Fragment fragment = new Fragment(false, new BitSet(), new BitSet());
+                int rest = node;
+                while (true) {
+                    boolean isLast = forest.kind(rest) != RegexForest.UNION;
+                    Fragment alternative = visit(forest, isLast ? rest : forest.left(rest));
+                    fragment = new Fragment(fragment.nullable || alternative.nullable,
+                            union(fragment.first, alternative.first), union(fragment.last, alternative.last));
+                    if (isLast) {
+                        return fragment;
+                    }
+                    rest = forest.right(rest);
+                }
+            }
+        }
+    }
+
+    /**
+     * Numbers the positions of an occurrence of a name, one for every edge of its automaton.
+     */
+    private Fragment visitName(Automaton automaton) {
+        NameAutomaton name = this.nameAutomata.get(automaton);
+        if (name == null) {
+            name = new NameAutomaton(automaton);
+            this.nameAutomata.put(automaton, name);
+        }
+        int base = this.ranges.size();
+        for (int e = 0; e < name.edgeCount; e++) {
+            newPosition(name.ranges[e]);
+        }
+        for (int e = 0; e < name.edgeCount; e++) {
+            BitSet follow = this.followpos.get(base + e);
+            for (int next = name.follow[e].nextSetBit(0); next >= 0; next = name.follow[e].nextSetBit(next + 1)) {
+                follow.set(base + next);
+            }
+        }
+        return new Fragment(name.nullable, shifted(name.first, base), shifted(name.last, base));
+    }
+
+    private int newPosition(String positionRanges) {
+        this.ranges.add(positionRanges);
+        this.followpos.add(new BitSet());
+        return this.ranges.size() - 1;
+    }
+
+    private void addFollowpos(BitSet from, BitSet to) {
+        for (int p = from.nextSetBit(0); p >= 0; p = from.nextSetBit(p + 1)) {
+            this.followpos.get(p).or(to);
+        }
+    }
+
+    private static BitSet union(BitSet a, BitSet b) {
+        BitSet union = (BitSet) a.clone();
+        union.or(b);
+        return union;
+    }
+
+    private static BitSet shifted(BitSet set, int base) {
+        BitSet shifted = new BitSet();
+        for (int i = set.nextSetBit(0); i >= 0; i = set.nextSetBit(i + 1)) {
+            shifted.set(base + i);
+        }
+        return shifted;
+    }
+
+    /**
+     * The nullable, firstpos and lastpos of an occurrence of a node.
+     */
+    private static final class Fragment {
+        final boolean nullable;
+        final BitSet first;
+        final BitSet last;
+
+        Fragment(boolean nullable, BitSet first, BitSet last) {
+            this.nullable = nullable;
+            this.first = first;
+            this.last = last;
+        }
+    }
+
+    /**
+     * The edges of the automaton of a name seen as positions numbered from 0: their ranges, the
+     * edges that follow every edge, the first and the last edges.
+     */
+    private static final class NameAutomaton {
+        final int edgeCount;
+        final String[] ranges;
+        final BitSet[] follow;
+        final BitSet first;
+        final BitSet last;
+        final boolean nullable;
+
+        NameAutomaton(Automaton automaton) {
+            // the states may have been renumbered after being hashed, so they are indexed by identity
+            IdentityHashMap<State, Integer> states = new IdentityHashMap<>();
+            List<State> order = new ArrayList<>();
+            index(automaton.getStart(), states, order);
+            for (State state : automaton.getStates()) {
+                index(state, states, order);
+            }
+            List<List<Integer>> epsilonMoves = new ArrayList<>();
+            List<List<Integer>> leaving = new ArrayList<>();
+            List<String> edgeRanges = new ArrayList<>();
+            List<Integer> targets = new ArrayList<>();
+            for (Map.Entry<Pair<State, String>, HashSet<State>> transition : automaton.getTransitions().entrySet()) {
+                int from = index(transition.getKey().getFirst(), states, order);
+                String symbol = transition.getKey().getSecond();
+                for (State target : transition.getValue()) {
+                    int to = index(target, states, order);
+                    while (epsilonMoves.size() < order.size()) {
+                        epsilonMoves.add(new ArrayList<>());
+                        leaving.add(new ArrayList<>());
+                    }
+                    if (symbol.equals(automaton.getEpsilonSymbol())) {
+                        epsilonMoves.get(from).add(to);
+                    } else {
+                        leaving.get(from).add(edgeRanges.size());
+                        edgeRanges.add(new String(new char[]{CharRange.from(symbol), CharRange.to(symbol)}));
+                        targets.add(to);
+                    }
+                }
+            }
+            for (State state : automaton.getAccepting()) {
+                index(state, states, order);
+            }
+            while (epsilonMoves.size() < order.size()) {
+                epsilonMoves.add(new ArrayList<>());
+                leaving.add(new ArrayList<>());
+            }
+            boolean[] accepting = new boolean[order.size()];
+            for (State state : automaton.getAccepting()) {
+                accepting[states.get(state)] = true;
+            }
+
+            this.edgeCount = edgeRanges.size();
+            this.ranges = edgeRanges.toArray(new String[0]);
+            this.follow = new BitSet[this.edgeCount];
+            this.last = new BitSet();
+            for (int e = 0; e < this.edgeCount; e++) {
+                this.follow[e] = new BitSet();
+                if (closure(targets.get(e), epsilonMoves, leaving, accepting, this.follow[e])) {
+                    this.last.set(e);
+                }
+            }
+            this.first = new BitSet();
+            this.nullable = closure(states.get(automaton.getStart()), epsilonMoves, leaving, accepting, this.first);
+        }
+
+        private static int index(State state, IdentityHashMap<State, Integer> states, List<State> order) {
+            Integer index = states.get(state);
+            if (index == null) {
+                index = order.size();
+                states.put(state, index);
+                order.add(state);
+            }
+            return index;
+        }
+
+        /**
+         * Adds the edges leaving the epsilon-closure of a state to a set.
+         *
+         * @return true if the closure has an accepting state
+         */
+        private static boolean closure(int state, List<List<Integer>> epsilonMoves, List<List<Integer>> leaving,
+                                       boolean[] accepting, BitSet edges) {
+            boolean isAccepting = false;
+            BitSet seen = new BitSet();
+            Deque<Integer> stack = new ArrayDeque<>();
+            seen.set(state);
+            stack.push(state);
+            while (!stack.isEmpty()) {
+                int s = stack.pop();
+                isAccepting |= accepting[s];
+                for (int e : leaving.get(s)) {
+                    edges.set(e);
+                }
+                for (int next : epsilonMoves.get(s)) {
+                    if (!seen.get(next)) {
+                        seen.set(next);
+                        stack.push(next);
+                    }
+                }
+            }
+            return isAccepting;
+        }
+    }
+}
@@ -2,69 +2,346 @@ package LexicalAnalysisGenerator.Creation;
 
 
 import LexicalAnalysisGenerator.Automaton.Automaton;
+import LexicalAnalysisGenerator.Automaton.Conversion;
+import LexicalAnalysisGenerator.Automaton.Utilities;
 
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 
 public class LexicalRulesParser {
     private final String epsilonSymbol = "\\L";
     private final Parsing parsing;
+    private final List<String> reservedTokens;
+    private final List<String> keywordTokens;
+    private final List<String> ruleTokens;
+    private final ForkJoinPool pool;
+    private boolean reclassifyKeywords;
+    // The words of the keywords left out of the automata by the last parse, keyed by their tokens
+    private Map<String, String> reclassifiedKeywords;
+    // The automata of the rules of the last parse, keyed by the keys of the rules
+    private Map<String, Automaton> memo;
+    private int builtRules;
+    private int reusedRules;
 
     public LexicalRulesParser() {
-        this.parsing = new Parsing();
+        this(ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param pool the pool the rules are built on
+     */
+    public LexicalRulesParser(ForkJoinPool pool) {
+        this(pool, null);
+    }
+
+    /**
+     * @param pool   the pool the rules are built on
+     * @param forest the forest the regular expressions of the rules are interned in, so that the
+     *               subexpressions they have in common are built once, or null
+     */
+    public LexicalRulesParser(ForkJoinPool pool, RegexForest forest) {
+        this(ConstructionStrategy.THOMPSON, pool, forest);
+    }
+
+    /**
+     * @param strategy the way the regular expressions of the rules are turned into DFAs
+     */
+    public LexicalRulesParser(ConstructionStrategy strategy) {
+        this(strategy, ForkJoinPool.commonPool(), null);
+    }
+
+    /**
+     * @param strategy the way the regular expressions of the rules are turned into DFAs
+     * @param pool     the pool the rules are built on
+     * @param forest   the forest the regular expressions of the rules are interned in, so that the
+     *                 subexpressions they have in common are built once, or null
+     */
+    public LexicalRulesParser(ConstructionStrategy strategy, ForkJoinPool pool, RegexForest forest) {
+        this.parsing = new Parsing(strategy, Conversion.DEFAULT_STATE_LIMIT, forest);
+        this.pool = pool;
+        this.reservedTokens = new ArrayList<>();
+        this.keywordTokens = new ArrayList<>();
+        this.ruleTokens = new ArrayList<>();
+        this.reclassifiedKeywords = new LinkedHashMap<>();
+        this.memo = new HashMap<>();
+    }
+
+    /**
+     * Returns the names of the tokens defined by the last parsed file, ordered from the highest
+     * to the lowest priority: keywords and punctuation first, then the regular expressions
+     * (":" lines) in the order they appear. Regular definitions ("=" lines) are not tokens.
+     *
+     * @return the token names in priority order
+     */
+    public List<String> getTokenNames() {
+        List<String> tokenNames = new ArrayList<>(this.reservedTokens);
+        tokenNames.addAll(this.ruleTokens);
+        return tokenNames;
+    }
+
+    /**
+     * Sets whether the keywords are left out of the automata, to be reclassified after an
+     * identifier is matched (see {@link #getReclassifiedKeywords}). Only the keywords that another
+     * token matches are left out, the others and the punctuation stay in the automata.
+     */
+    public void setReclassifyKeywords(boolean reclassifyKeywords) {
+        this.reclassifyKeywords = reclassifyKeywords;
+    }
+
+    /**
+     * Returns the keywords that the last parse left out of the automata, so that a lexical analyzer
+     * built with {@code LexicalAnalyzer.withKeywordTable} reclassifies the tokens matching them.
+     * The token names of these keywords stay in {@link #getTokenNames}, with no automaton.
+     *
+     * @return the words of the keywords, keyed by their token names
+     */
+    public Map<String, String> getReclassifiedKeywords() {
+        return this.reclassifiedKeywords;
     }
 
     public Map<String, Automaton> parseFile(String filename) throws IOException {
-        Map<String, Automaton> automata = new HashMap<>();
-        BufferedReader reader = new BufferedReader(new FileReader(filename));
+        try (BufferedReader reader = new BufferedReader(new FileReader(filename))) {
+            return parse(reader);
+        }
+    }
+
+    /**
+     * Parses lexical rules, the reader being left open.
+     * The automaton of every rule is kept until the next parse, keyed by the kind, name and regex
+     * of the rule and by the keys of the rules it may refer to, so that parsing an edited file only
+     * builds the rules that changed and the rules that depend on them. The rules to build are built
+     * in parallel on the pool of the parser, every rule waiting for the rules it refers to.
+     *
+     * @param reader the rules, one per line
+     * @return the automata of the rules, keyed by their names
+     * @throws IOException if reading the rules fails
+     */
+    public Map<String, Automaton> parse(BufferedReader reader) throws IOException {
+        List<Rule> rules = new ArrayList<>();
+        Map<String, Rule> lastRules = new LinkedHashMap<>();
+        this.reservedTokens.clear();
+        this.keywordTokens.clear();
+        this.ruleTokens.clear();
         String line;
         while ((line = reader.readLine()) != null) {
             line = line.trim();
+            if (line.isEmpty()) {
+                continue;
+            }
             String non_terminal = line.split("\\s+")[0];
             boolean isRegularDefinition = non_terminal.toCharArray()[non_terminal.length() - 1] == ':';
 
             String s = line.substring(1, line.length() - 1).trim();
-            if (line.startsWith("{")) { // done
-                // These are keywords
-                for (String keyword : s.split("\\s+")) {
-                    Automaton a = parsing.regexToMinimizedDFA(keyword, epsilonSymbol);
-                    a.setRegex(a.getToken());
-                    a.setTokenAll(keyword);
-                    automata.put(keyword, a);
-                }
-            } else if (line.startsWith("[")) {
-                // These are punctuation
-                for (String punctuation : s.split("\\s+")) {
-                    Automaton a = parsing.regexToMinimizedDFA(punctuation, epsilonSymbol);
-                    a.setRegex(a.getToken());
-                    a.setTokenAll(punctuation);
-                    automata.put(punctuation, a);
+            if (line.startsWith("{") || line.startsWith("[")) {
+                // These are keywords or punctuation, built together once the file is read
+                for (String word : s.split("\\s+")) {
+                    if (!word.isEmpty()) {
+                        reservedTokens.add(word);
+                        if (line.startsWith("{")) {
+                            keywordTokens.add(word);
+                        }
+                    }
                 }
             } else if (isRegularDefinition) {
                 // This is a regular definition
-                String[] parts = line.split(":");
+                String[] parts = line.split(":", 2);
                 String name = parts[0].trim();
                 String rd = parts[1].trim().replaceAll("\\s+", "");
-                Automaton a = parsing.parseRegularDefinition(rd, automata, epsilonSymbol);
-                a.setRegex(a.getToken());
-                a.setTokenAll(name);
-                automata.put(name, a);
+                addRule(rules, lastRules, Rule.TOKEN, name, rd);
+                ruleTokens.add(name);
             } else if (line.contains("=")) {
                 // This is a regular definition
-                String[] parts = line.split("=");
+                String[] parts = line.split("=", 2);
                 String name = parts[0].trim();
                 String regex = parts[1].trim().replaceAll("\\s+", "");
-                Automaton a = parsing.regexToMinimizedDFA(regex, epsilonSymbol);
-                a.setRegex(a.getToken());
-                a.setTokenAll(name);
-                automata.put(name, a);
+                addRule(rules, lastRules, Rule.DEFINITION, name, regex);
+            }
+        }
+
+        if (!this.reservedTokens.isEmpty()) {
+            StringBuilder key = new StringBuilder().append(Rule.RESERVED);
+            for (String word : this.reservedTokens) {
+                key.append('\0').append(this.keywordTokens.contains(word) ? 'k' : 'p').append(word);
+            }
+            // the keywords reclassified depend on the tokens that match them
+            List<Rule> dependencies = new ArrayList<>();
+            if (this.reclassifyKeywords) {
+                for (Rule rule : rules) {
+                    if (rule.kind == Rule.TOKEN) {
+                        key.append('\0').append(rule.key);
+                        dependencies.add(rule);
+                    }
+                }
+            }
+            rules.add(new Rule(Rule.RESERVED, "", null, key.toString(), dependencies));
+        } else {
+            this.reclassifiedKeywords = new LinkedHashMap<>();
+        }
+
+        // Start building the rules that were not built by the last parse, in the order of the
+        // file so that the rules a rule refers to are started before it.
+        this.builtRules = 0;
+        this.reusedRules = 0;
+        for (Rule rule : rules) {
+            rule.automaton = this.memo.get(rule.key);
+            if (rule.automaton != null) {
+                this.reusedRules++;
+            } else {
+                this.builtRules++;
+                rule.task = this.pool.submit(() -> build(rule));
+            }
+        }
+        Map<String, Automaton> automata = new LinkedHashMap<>();
+        Map<String, Automaton> used = new HashMap<>();
+        for (Rule rule : rules) {
+            Automaton a = rule.get();
+            if (rule.kind == Rule.RESERVED) {
+                // the keywords and punctuation share one automaton
+                for (String word : this.reservedTokens) {
+                    if (!this.reclassifiedKeywords.containsKey(word)) {
+                        automata.put(word, a);
+                    }
+                }
+            } else {
+                automata.put(rule.name, a);
             }
+            used.put(rule.key, a);
         }
-        reader.close();
+        this.memo = used;
         return automata;
     }
+
+    /**
+     * Adds a token or definition rule after computing its key. It may refer to any token or
+     * definition before it whose name appears in its regex, so the keys of those rules are part of
+     * its key: when one of them changes, so does the key of the rule. The keywords and punctuation
+     * can't be referred to, a keyword in a regex stands for its own characters anyway.
+     */
+    private static void addRule(List<Rule> rules, Map<String, Rule> lastRules, int kind, String name, String regex) {
+        StringBuilder key = new StringBuilder().append(kind).append('\0').append(name).append('\0').append(regex);
+        List<Rule> dependencies = new ArrayList<>();
+        for (Rule rule : lastRules.values()) {
+            if (regex.contains(rule.name)) {
+                key.append('\0').append(rule.name).append('=').append(rule.key);
+                dependencies.add(rule);
+            }
+        }
+        Rule rule = new Rule(kind, name, regex, key.toString(), dependencies);
+        rules.add(rule);
+        // a rule refers to the last rule of a name before it
+        lastRules.remove(name);
+        lastRules.put(name, rule);
+    }
+
+    /**
+     * Builds the automaton of a rule, once the automata of the rules it refers to are built.
+     */
+    private Automaton build(Rule rule) {
+        if (rule.kind == Rule.RESERVED) {
+            return buildReservedWords(rule.dependencies);
+        }
+        Map<String, Automaton> definitions = new HashMap<>();
+        for (Rule dependency : rule.dependencies) {
+            definitions.put(dependency.name, dependency.get());
+        }
+        Automaton a = parsing.parseRegularDefinition(rule.regex, definitions, epsilonSymbol);
+        a.setRegex(a.getToken());
+        a.setTokenAll(rule.name);
+        return a;
+    }
+
+    /**
+     * Builds the keywords and punctuation into one minimal acyclic DFA, each of them accepted with
+     * its own token. A backslash escapes the character after it, so the punctuation \( is the
+     * word (. When two of them are the same word, the first one has the word. When the keywords
+     * are reclassified, the keywords matched by one of the tokens are left out.
+     *
+     * @param tokens the token rules, if the keywords are reclassified
+     */
+    private Automaton buildReservedWords(List<Rule> tokens) {
+        TreeMap<String, String> words = new TreeMap<>();
+        for (String tokenName : this.reservedTokens) {
+            StringBuilder word = new StringBuilder();
+            for (int i = 0; i < tokenName.length(); i++) {
+                char c = tokenName.charAt(i);
+                if (c == '\\' && i + 1 < tokenName.length()) {
+                    c = tokenName.charAt(++i);
+                }
+                word.append(c);
+            }
+            words.putIfAbsent(word.toString(), tokenName);
+        }
+        Utilities utilities = new Utilities();
+        Map<String, String> reclassified = new LinkedHashMap<>();
+        AcyclicDfaBuilder builder = new AcyclicDfaBuilder();
+        for (Map.Entry<String, String> word : words.entrySet()) {
+            boolean matched = false;
+            if (this.keywordTokens.contains(word.getValue())) {
+                for (int i = 0; i < tokens.size() && !matched; i++) {
+                    matched = utilities.accepts(tokens.get(i).get(), word.getKey());
+                }
+            }
+            if (matched) {
+                reclassified.put(word.getValue(), word.getKey());
+            } else {
+                builder.add(word.getKey(), word.getValue());
+            }
+        }
+        this.reclassifiedKeywords = reclassified;
+        return builder.build(epsilonSymbol);
+    }
+
+    /**
+     * @return the number of rules the last parse built
+     */
+    public int getBuiltRuleCount() {
+        return this.builtRules;
+    }
+
+    /**
+     * @return the number of rules the last parse took from the parse before it
+     */
+    public int getReusedRuleCount() {
+        return this.reusedRules;
+    }
+
+    /**
+     * A rule of a file, with its automaton: the one of the last parse, or the task building it.
+     */
+    private static class Rule {
+        // all the keywords and punctuation of a file are one rule
+        static final int RESERVED = 0;
+        static final int TOKEN = 1;
+        static final int DEFINITION = 2;
+
+        final int kind;
+        final String name;
+        final String regex;
+        final String key;
+        final List<Rule> dependencies;
+        Automaton automaton;
+        ForkJoinTask<Automaton> task;
+
+        Rule(int kind, String name, String regex, String key, List<Rule> dependencies) {
+            this.kind = kind;
+            this.name = name;
+            this.regex = regex;
+            this.key = key;
+            this.dependencies = dependencies;
+        }
+
+        Automaton get() {
+            return (this.automaton != null) ? this.automaton : this.task.join();
+        }
+    }
 }
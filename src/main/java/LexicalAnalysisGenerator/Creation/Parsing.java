@@ -2,138 +2,277 @@ package LexicalAnalysisGenerator.Creation;
 
 import LexicalAnalysisGenerator.Automaton.Automaton;
 import LexicalAnalysisGenerator.Automaton.Conversion;
-import LexicalAnalysisGenerator.Automaton.Utilities;
+import LexicalAnalysisGenerator.Automaton.StateLimitExceededException;
 
+import java.util.ArrayDeque;
+import java.util.Deque;
 import java.util.Map;
-import java.util.Stack;
 
 /**
  * This class is responsible for parsing regular expressions and converting them into minimized DFAs.
+ * The builders that keep state while a regex is built are created for every regex, so one instance
+ * can parse several regexes at once on different threads.
  */
 public class Parsing {
     private final InfixToPostfix infixToPostfix;
     private final Constants constants;
-    private final Utilities utilities;
     private final Conversion conversion;
+    private final ConstructionStrategy strategy;
+    private final int stateLimit;
+    private final RegexForest forest;
 
     /**
-     * Constructor for the Parsing class.
+     * Constructor for the Parsing class, with the default DFA state limit.
      */
     public Parsing() {
+        this(Conversion.DEFAULT_STATE_LIMIT);
+    }
+
+    /**
+     * Constructor for the Parsing class.
+     *
+     * @param stateLimit The maximum number of states of a DFA, a regex whose DFA is larger is kept as an NFA.
+     */
+    public Parsing(int stateLimit) {
+        this(stateLimit, null);
+    }
+
+    /**
+     * Constructor for the Parsing class, sharing the syntax trees of the regexes in a forest, the
+     * DFAs being built through Thompson NFAs.
+     *
+     * @param stateLimit The maximum number of states of a DFA, a regex whose DFA is larger is kept as an NFA.
+     * @param forest     The forest the regexes are interned in, so that their common subexpressions are built
+     *                   once, or null to give every regex a forest of its own.
+     */
+    public Parsing(int stateLimit, RegexForest forest) {
+        this(ConstructionStrategy.THOMPSON, stateLimit, forest);
+    }
+
+    /**
+     * Constructor for the Parsing class, sharing the syntax trees of the regexes in a forest.
+     *
+     * @param strategy   The way the syntax trees of the regexes are turned into DFAs.
+     * @param stateLimit The maximum number of states of a DFA, a regex whose DFA is larger is kept as an NFA.
+     * @param forest     The forest the regexes are interned in, so that their common subexpressions are built
+     *                   once, or null to give every regex a forest of its own.
+     */
+    public Parsing(ConstructionStrategy strategy, int stateLimit, RegexForest forest) {
+        this.strategy = strategy;
+        this.stateLimit = stateLimit;
+        this.forest = forest;
         this.infixToPostfix = new InfixToPostfix();
         this.constants = new Constants();
-        this.utilities = new Utilities();
         this.conversion = new Conversion();
     }
 
     /**
-     * Converts a regular expression into a minimized DFA.
+     * Converts a regular expression into a minimized DFA, using the construction strategy of this parser.
+     * If the DFA would have more states than the state limit, the Thompson NFA of the regex is
+     * returned instead, so that it can still be matched without determinizing it.
+     * The rules of a lexical rules file don't go through this method: their ":" tokens and "="
+     * definitions are both built by {@link #parseRegularDefinition}, that resolves the names of
+     * the earlier rules.
      *
      * @param regex         The regular expression to be converted.
      * @param epsilonSymbol The symbol representing epsilon transitions.
-     * @return The minimized DFA equivalent of the regular expression.
+     * @return The minimized DFA equivalent of the regular expression, or its NFA.
      */
     public Automaton regexToMinimizedDFA(String regex, String epsilonSymbol) {
-        // Parse the regex and construct the corresponding automaton
+        // Parse the regex and construct the corresponding automaton, named after the regex
         String postfix = infixToPostfix.infixToPostfix(regex);
-        // parse the postfix regex (easier) to an Automaton
-        Automaton regexAutomaton = parseRegex(postfix, epsilonSymbol);
-        // Convert the regex automaton to a DFA and minimize it
-        Automaton dfa = conversion.convertToDFA(regexAutomaton);
-        // return the minimized dfa
-        return conversion.minimizeDFA(dfa);
+        RegexForest forest = (this.forest != null) ? this.forest : new RegexForest();
+        return toMinimizedDFA(forest, forest.intern(postfix), regex, epsilonSymbol);
     }
 
-
     /**
-     * Parses a regular expression and constructs the corresponding automaton.
+     * Converts the syntax tree of a regex into a minimized DFA, using the construction strategy of
+     * this parser: the Thompson NFA of the tree is converted by the subset construction, or the
+     * DFA is built directly from the tree by the {@link FollowposBuilder}.
      *
-     * @param regex         The regular expression to be parsed.
-     * @param epsilonSymbol The symbol representing epsilon transitions.
-     * @return The automaton equivalent of the regular expression.
+     * @return the minimized DFA, or the Thompson NFA if the DFA would have more states than the
+     * state limit
      */
-    private Automaton parseRegex(String regex, String epsilonSymbol) {
-        Stack<Automaton> stack = new Stack<>();
-        for (int i = 0; i < regex.length(); i++) {
-            char c = regex.charAt(i);
-            if (!constants.isOperator(c)) {
-                stack.push(new Automaton(String.valueOf(c), null, epsilonSymbol));
+    private Automaton toMinimizedDFA(RegexForest forest, int root, String tokenName, String epsilonSymbol) {
+        Automaton nfa = null;
+        try {
+            Automaton dfa;
+            if (strategy == ConstructionStrategy.FOLLOWPOS) {
+                dfa = new FollowposBuilder().build(forest, root, tokenName, epsilonSymbol, stateLimit);
             } else {
-                if (i < regex.length() - 1 && constants.ESCAPE == regex.charAt(i + 1)) {
-                    stack.push(new Automaton(String.valueOf(c), null, epsilonSymbol));
-                    i++;
-                } else if (c == constants.KLEENE_CLOSURE) {
-                    stack.push(utilities.kleeneClosure(stack.pop(), null)); // replace with your own operation
-                } else if (c == constants.POSITIVE_CLOSURE) {
-                    stack.push(utilities.positiveClosure(stack.pop(), null)); // replace with your own operation
-                } else if (c == constants.RANGE) {
-                    char end = stack.pop().getAlphabets().iterator().next().charAt(0);
-                    char start = stack.pop().getAlphabets().iterator().next().charAt(0);
-                    Automaton unionAll = new Automaton(String.valueOf(start), null, epsilonSymbol);
-                    for (char letter = (char) (start + 1); letter <= end; letter++) {
-                        unionAll = utilities.union(unionAll, new Automaton(String.valueOf(letter), null, epsilonSymbol), null);
-                    }
-                    stack.push(unionAll);
-                } else if (c == constants.CONCATENATION) {
-                    Automaton a2 = stack.pop();
-                    Automaton a1 = stack.pop();
-                    stack.push(utilities.concatenate(a1, a2, null)); // replace with your own operation
-                } else if (c == constants.UNION) {
-                    Automaton a2 = stack.pop();
-                    Automaton a1 = stack.pop();
-                    stack.push(utilities.union(a1, a2, null)); // replace with your own operation
-                } else if (c == constants.ESCAPE) {
-                    char c1 = regex.charAt(i - 1);
-                    Automaton a = stack.pop();
-                    stack.push(a);
-                }
+                nfa = forest.build(root).toAutomaton(tokenName, epsilonSymbol);
+                dfa = conversion.convertToDFA(nfa, null, stateLimit);
             }
+            return conversion.minimizeDFA(dfa);
+        } catch (StateLimitExceededException e) {
+            return (nfa != null) ? nfa : forest.build(root).toAutomaton(tokenName, epsilonSymbol);
         }
-
-        return stack.pop();
     }
 
+    /**
+     * Converts a regular definition of a lexical rules file into a minimized DFA.
+     * A definition is an infix regex whose operands may be the names of earlier rules: a name is
+     * replaced by the automaton of its rule, copied as a fragment, so the regex of the rule is not
+     * parsed again. Where several names match, the longest one is taken. The definition is
+     * simplified in the forest of this parser (or in a forest of its own) before its DFA is built.
+     * Concatenation is implicit and binds tighter than |, * and + bind tighter than both. A
+     * backslash escapes the next character, except that \L is epsilon. As concatenation needs no
+     * operator, a '.' is a dot, and a '-' is a range only between two characters, so "\+ | -"
+     * matches a minus.
+     *
+     * @param regularDefinition the regular definition, without white space
+     * @param map               the automata of the earlier rules, keyed by their names
+     * @param epsilonSymbol     the symbol representing epsilon transitions
+     * @return the minimized DFA of the definition, or its NFA if the DFA would have more states
+     * than the state limit
+     */
     public Automaton parseRegularDefinition(String regularDefinition, Map<String, Automaton> map, String epsilonSymbol) {
-        Stack<Automaton> stack = new Stack<>();
-        String name = "";
-        boolean build = true;
-        for (int i = 0; i < regularDefinition.length(); i++) {
+        RegexForest forest = (this.forest != null) ? this.forest : new RegexForest();
+        Deque<Integer> operands = new ArrayDeque<>();
+        Deque<Character> operators = new ArrayDeque<>();
+        // true when the last token ends an operand, so that an operand after it is concatenated
+        boolean afterOperand = false;
+        int i = 0;
+        while (i < regularDefinition.length()) {
             char c = regularDefinition.charAt(i);
-            if (!constants.isOperator(c)) {
-                stack.push(new Automaton(String.valueOf(c), null, epsilonSymbol));
+            int operand = -1;
+            if (c == constants.OPEN_PARENTHESIS) {
+                if (afterOperand) {
+                    pushOperator(constants.CONCATENATION, forest, operands, operators, regularDefinition);
+                }
+                operators.push(c);
+                afterOperand = false;
+                i++;
+            } else if (c == constants.CLOSE_PARENTHESIS) {
+                while (!operators.isEmpty() && operators.peek() != constants.OPEN_PARENTHESIS) {
+                    reduce(operators.pop(), forest, operands, regularDefinition);
+                }
+                if (operators.isEmpty() || !afterOperand) {
+                    throw new IllegalArgumentException("Unbalanced parentheses in " + regularDefinition + ".");
+                }
+                operators.pop();
+                i++;
+            } else if (c == constants.KLEENE_CLOSURE || c == constants.POSITIVE_CLOSURE) {
+                // the closures bind tighter than anything else, they apply to the last operand
+                if (!afterOperand) {
+                    throw new IllegalArgumentException("Missing operand before " + c + " in " + regularDefinition + ".");
+                }
+                int a = operands.pop();
+                operands.push((c == constants.KLEENE_CLOSURE) ? forest.kleeneClosure(a) : forest.positiveClosure(a));
+                i++;
+            } else if (c == constants.UNION) {
+                if (!afterOperand) {
+                    throw new IllegalArgumentException("Missing operand before | in " + regularDefinition + ".");
+                }
+                pushOperator(c, forest, operands, operators, regularDefinition);
+                afterOperand = false;
+                i++;
+            } else if (c == constants.ESCAPE && i + 1 < regularDefinition.length()
+                    && regularDefinition.charAt(i + 1) == 'L') {
+                operand = forest.epsilon();
+                i += 2;
             } else {
-                if (i < regularDefinition.length() - 1 && constants.ESCAPE == regularDefinition.charAt(i + 1)) {
-                    stack.push(new Automaton(String.valueOf(c), null, epsilonSymbol));
-                    i++;
-                } else if (c == constants.KLEENE_CLOSURE) {
-                    stack.push(utilities.kleeneClosure(stack.pop(), null)); // replace with your own operation
-                } else if (c == constants.POSITIVE_CLOSURE) {
-                    stack.push(utilities.positiveClosure(stack.pop(), null)); // replace with your own operation
-                } else if (c == constants.RANGE) {
-                    char end = stack.pop().getAlphabets().iterator().next().charAt(0);
-                    char start = stack.pop().getAlphabets().iterator().next().charAt(0);
-                    Automaton unionAll = new Automaton(String.valueOf(start), null, epsilonSymbol);
-                    for (char letter = (char) (start + 1); letter <= end; letter++) {
-                        unionAll = utilities.union(unionAll, new Automaton(String.valueOf(letter), null, epsilonSymbol), null);
+                String name = longestName(regularDefinition, i, map);
+                if (name != null) {
+                    operand = forest.name(map.get(name));
+                    i += name.length();
+                } else {
+                    int next = nextCharacter(regularDefinition, i);
+                    char first = literal(regularDefinition, i);
+                    char last = first;
+                    // a range is a '-' between two characters
+                    if (next + 1 < regularDefinition.length() && regularDefinition.charAt(next) == constants.RANGE
+                            && isCharacter(regularDefinition, next + 1)) {
+                        last = literal(regularDefinition, next + 1);
+                        next = nextCharacter(regularDefinition, next + 1);
                     }
-                    stack.push(unionAll);
-                } else if (c == constants.CONCATENATION) {
-                    Automaton a2 = stack.pop();
-                    Automaton a1 = stack.pop();
-                    stack.push(utilities.concatenate(a1, a2, null)); // replace with your own operation
-                } else if (c == constants.UNION) {
-                    Automaton a2 = stack.pop();
-                    Automaton a1 = stack.pop();
-                    stack.push(utilities.union(a1, a2, null)); // replace with your own operation
-                } else if (c == constants.ESCAPE) {
-                    char c1 = regularDefinition.charAt(i - 1);
-                    Automaton a = stack.pop();
-                    stack.push(a);
+                    operand = forest.characters(first, last);
+                    i = next;
                 }
             }
+            if (operand >= 0) {
+                if (afterOperand) {
+                    pushOperator(constants.CONCATENATION, forest, operands, operators, regularDefinition);
+                }
+                operands.push(operand);
+                afterOperand = true;
+            }
+        }
+        while (!operators.isEmpty()) {
+            char operator = operators.pop();
+            if (operator == constants.OPEN_PARENTHESIS) {
+                throw new IllegalArgumentException("Unbalanced parentheses in " + regularDefinition + ".");
+            }
+            reduce(operator, forest, operands, regularDefinition);
+        }
+        if (operands.size() != 1 || !afterOperand) {
+            throw new IllegalArgumentException("Invalid regular definition " + regularDefinition + ".");
+        }
+
+        return toMinimizedDFA(forest, operands.pop(), null, epsilonSymbol);
+    }
+
+    /**
+     * @return the longest name of the map that the definition has at the given index, or null
+     */
+    private static String longestName(String regularDefinition, int index, Map<String, Automaton> map) {
+        String longest = null;
+        for (String name : map.keySet()) {
+            if (!name.isEmpty() && regularDefinition.startsWith(name, index)
+                    && (longest == null || name.length() > longest.length())) {
+                longest = name;
+            }
+        }
+        return longest;
+    }
+
+    /**
+     * @return true if a character (escaped or not) that is not an operator starts at the index
+     */
+    private boolean isCharacter(String regularDefinition, int index) {
+        char c = regularDefinition.charAt(index);
+        if (c == constants.ESCAPE) {
+            return index + 1 < regularDefinition.length() && regularDefinition.charAt(index + 1) != 'L';
         }
+        return c != constants.OPEN_PARENTHESIS && c != constants.CLOSE_PARENTHESIS && c != constants.UNION
+                && c != constants.KLEENE_CLOSURE && c != constants.POSITIVE_CLOSURE;
+    }
 
-        return stack.pop();
+    /**
+     * @return the character at the index, the escaped one after a backslash
+     */
+    private char literal(String regularDefinition, int index) {
+        boolean escaped = regularDefinition.charAt(index) == constants.ESCAPE && index + 1 < regularDefinition.length();
+        return regularDefinition.charAt(escaped ? index + 1 : index);
+    }
 
+    /**
+     * @return the index after the character at the index
+     */
+    private int nextCharacter(String regularDefinition, int index) {
+        boolean escaped = regularDefinition.charAt(index) == constants.ESCAPE && index + 1 < regularDefinition.length();
+        return index + (escaped ? 2 : 1);
+    }
+
+    /**
+     * Pushes a binary operator, applying first the operators on the stack that bind at least as
+     * tight (concatenation binds tighter than union).
+     */
+    private void pushOperator(char operator, RegexForest forest, Deque<Integer> operands, Deque<Character> operators,
+                              String regularDefinition) {
+        while (!operators.isEmpty() && operators.peek() != constants.OPEN_PARENTHESIS
+                && constants.priority(operators.peek()) >= constants.priority(operator)) {
+            reduce(operators.pop(), forest, operands, regularDefinition);
+        }
+        operators.push(operator);
+    }
+
+    private void reduce(char operator, RegexForest forest, Deque<Integer> operands, String regularDefinition) {
+        if (operands.size() < 2) {
+            throw new IllegalArgumentException("Missing operand of " + operator + " in " + regularDefinition + ".");
+        }
+        int a2 = operands.pop();
+        int a1 = operands.pop();
+        operands.push((operator == constants.CONCATENATION) ? forest.concatenate(a1, a2) : forest.union(a1, a2));
     }
 }
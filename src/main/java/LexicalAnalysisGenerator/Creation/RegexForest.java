@@ -0,0 +1,594 @@
+package LexicalAnalysisGenerator.Creation;
+
+import LexicalAnalysisGenerator.Automaton.Automaton;
+import LexicalAnalysisGenerator.Automaton.CharRange;
+import LexicalAnalysisGenerator.Automaton.Nfa;
+import LexicalAnalysisGenerator.Automaton.Pair;
+import LexicalAnalysisGenerator.Automaton.State;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * This class keeps the syntax trees of regular expressions hash-consed and simplified.
+ * A node is only created once for every kind and children, so the same subexpression is one node
+ * wherever it appears, in one regex or across all the regexes of the forest.
+ * <p>
+ * The nodes are simplified as they are created, so that the NFAs don't get the states that
+ * the subset construction and the minimization would only have to remove:
+ * <ul>
+ * <li>nested closures are flattened, (a*)* and (a+)* are a*, (a*)+ is a* and (a+)+ is a+;</li>
+ * <li>epsilon is dropped from concatenations, and from unions with a closure, (\L|a+) is a*;</li>
+ * <li>the characters and ranges of a union are merged into one class, a|b|c-f is the class a-f;</li>
+ * <li>the unions are flattened, their alternatives sorted and their duplicates removed, so a|a is a
+ * and a|b is b|a, and the common prefixes of their alternatives are factored, ab|ac is a(b|c).</li>
+ * </ul>
+ * The NFAs are built by Thompson's construction, except that a class is one pair of states
+ * whatever the number of its ranges, and that a union of n alternatives is one pair of states.
+ * A fragment can't be shared in place (its end leads to whatever follows it), so the fragment of
+ * a node that appears more than once is built once into a template, then copied wherever the node
+ * appears.
+ * <p>
+ * The methods are synchronized, the forest can be shared by the threads of a parser.
+ */
+public class RegexForest {
+    static final int EPSILON = 0;
+    static final int CLASS = 1;
+    static final int NAME = 2;
+    static final int KLEENE = 3;
+    static final int POSITIVE = 4;
+    static final int CONCATENATION = 5;
+    static final int UNION = 6;
+
+    private final Constants constants;
+
+    // The nodes. A class is labelled with the index of its ranges in classes, a name with the index
+    // of its automaton in names. A concatenation is (first factor, rest) and a union is
+    // (first alternative, rest), so neither is ever the left child of a node of its own kind.
+    // The children of a node always come before it.
+    private int[] kinds;
+    private int[] lefts;
+    private int[] rights;
+    // The number of times every node appears in the regexes
+    private int[] uses;
+    private Nfa[] templates;
+    private int nodeCount;
+    private final HashMap<Long, Integer> index;
+    private final int epsilon;
+
+    // The ranges of every class as pairs of characters low, high, sorted and neither overlapping
+    // nor adjacent
+    private final List<String> classes;
+    private final HashMap<String, Integer> classIndex;
+    private final List<Automaton> names;
+    private final IdentityHashMap<Automaton, Integer> nameIndex;
+
+    private long treeNodes;
+    private long builtStates;
+    private long copiedStates;
+
+    public RegexForest() {
+        this.constants = new Constants();
+        this.kinds = new int[64];
+        this.lefts = new int[64];
+        this.rights = new int[64];
+        this.uses = new int[64];
+        this.templates = new Nfa[64];
+        this.index = new HashMap<>();
+        this.classes = new ArrayList<>();
+        this.classIndex = new HashMap<>();
+        this.names = new ArrayList<>();
+        this.nameIndex = new IdentityHashMap<>();
+        this.epsilon = node(EPSILON, 0, 0);
+    }
+
+    /**
+     * Adds the syntax tree of a regular expression to the forest. An operator followed by an
+     * escape is a literal character, and the two characters of a range become a single class.
+     *
+     * @param postfix the regular expression in postfix notation
+     * @return the root node
+     */
+    public synchronized int intern(String postfix) {
+        int[] stack = new int[16];
+        int size = 0;
+        for (int i = 0; i < postfix.length(); i++) {
+            char c = postfix.charAt(i);
+            if (size == stack.length) {
+                stack = Arrays.copyOf(stack, size * 2);
+            }
+            if (!constants.isOperator(c)) {
+                stack[size++] = characters(c, c);
+            } else if (i < postfix.length() - 1 && constants.ESCAPE == postfix.charAt(i + 1)) {
+                // an escaped operator is a literal character
+                stack[size++] = characters(c, c);
+                i++;
+            } else if (c == constants.KLEENE_CLOSURE) {
+                stack[size - 1] = kleeneClosure(stack[size - 1]);
+            } else if (c == constants.POSITIVE_CLOSURE) {
+                stack[size - 1] = positiveClosure(stack[size - 1]);
+            } else if (c == constants.RANGE) {
+                int last = stack[--size];
+                int first = stack[size - 1];
+                if (!isCharacter(first) || !isCharacter(last)) {
+                    throw new IllegalArgumentException("The operands of a range must be characters.");
+                }
+                // the two characters are one leaf of the tree
+                this.uses[first]--;
+                this.uses[last]--;
+                this.treeNodes -= 2;
+                stack[size - 1] = characters(this.classes.get(this.lefts[first]).charAt(0),
+                        this.classes.get(this.lefts[last]).charAt(0));
+            } else if (c == constants.CONCATENATION) {
+                int second = stack[--size];
+                stack[size - 1] = concatenate(stack[size - 1], second);
+            } else if (c == constants.UNION) {
+                int second = stack[--size];
+                stack[size - 1] = union(stack[size - 1], second);
+            }
+            // an escape after a literal character changes nothing, the character is already pushed
+        }
+        return stack[size - 1];
+    }
+
+    private boolean isCharacter(int node) {
+        if (this.kinds[node] != CLASS) {
+            return false;
+        }
+        String ranges = this.classes.get(this.lefts[node]);
+        return ranges.length() == 2 && ranges.charAt(0) == ranges.charAt(1);
+    }
+
+    /**
+     * @return the node matching the empty string
+     */
+    public synchronized int epsilon() {
+        return used(this.epsilon);
+    }
+
+    /**
+     * @return the node matching the characters low..high
+     */
+    public synchronized int characters(char low, char high) {
+        if (low > high) {
+            throw new IllegalArgumentException("Invalid range " + low + constants.RANGE + high + ".");
+        }
+        return used(characterClass(new String(new char[]{low, high})));
+    }
+
+    /**
+     * @param automaton an automaton, its fragment is a copy of it
+     * @return the node matching the language of the automaton
+     */
+    public synchronized int name(Automaton automaton) {
+        Integer name = this.nameIndex.get(automaton);
+        if (name == null) {
+            name = this.names.size();
+            this.names.add(automaton);
+            this.nameIndex.put(automaton, name);
+        }
+        return used(node(NAME, name, 0));
+    }
+
+    public synchronized int kleeneClosure(int node) {
+        return used(kleene(node));
+    }
+
+    public synchronized int positiveClosure(int node) {
+        return used(positive(node));
+    }
+
+    public synchronized int concatenate(int first, int second) {
+        return used(concatenation(first, second));
+    }
+
+    public synchronized int union(int first, int second) {
+        List<Integer> alternatives = new ArrayList<>();
+        addAlternatives(first, alternatives);
+        addAlternatives(second, alternatives);
+        return used(union(alternatives));
+    }
+
+    /**
+     * Counts a node of a regex.
+     */
+    private int used(int node) {
+        this.treeNodes++;
+        this.uses[node]++;
+        return node;
+    }
+
+    private int kleene(int node) {
+        switch (this.kinds[node]) {
+            case EPSILON:
+            case KLEENE:
+                return node;
+            case POSITIVE:
+                return kleene(this.lefts[node]);
+            case UNION: {
+                // (\L|a)* is a*
+                List<Integer> alternatives = new ArrayList<>();
+                addAlternatives(node, alternatives);
+                if (alternatives.remove((Integer) this.epsilon)) {
+                    return kleene(union(alternatives));
+                }
+                return node(KLEENE, node, 0);
+            }
+            default:
+                return node(KLEENE, node, 0);
+        }
+    }
+
+    private int positive(int node) {
+        switch (this.kinds[node]) {
+            case EPSILON:
+            case KLEENE:
+            case POSITIVE:
+                return node;
+            case UNION: {
+                // (\L|a)+ is a*
+                List<Integer> alternatives = new ArrayList<>();
+                addAlternatives(node, alternatives);
+                if (alternatives.remove((Integer) this.epsilon)) {
+                    return kleene(union(alternatives));
+                }
+                return node(POSITIVE, node, 0);
+            }
+            default:
+                return node(POSITIVE, node, 0);
+        }
+    }
+
+    private int concatenation(int first, int second) {
+        if (first == this.epsilon) {
+            return second;
+        }
+        if (second == this.epsilon) {
+            return first;
+        }
+        if (this.kinds[first] == CONCATENATION) {
+            return concatenation(this.lefts[first], concatenation(this.rights[first], second));
+        }
+        return node(CONCATENATION, first, second);
+    }
+
+    private void addAlternatives(int node, List<Integer> alternatives) {
+        while (this.kinds[node] == UNION) {
+            alternatives.add(this.lefts[node]);
+            node = this.rights[node];
+        }
+        alternatives.add(node);
+    }
+
+    /**
+     * @param alternatives the alternatives, none of them a union
+     * @return the simplified union of the alternatives
+     */
+    private int union(List<Integer> alternatives) {
+        // the classes are merged into one
+        StringBuilder ranges = new StringBuilder();
+        HashSet<Integer> others = new HashSet<>();
+        for (int alternative : alternatives) {
+            if (this.kinds[alternative] == CLASS) {
+                ranges.append(this.classes.get(this.lefts[alternative]));
+            } else {
+                others.add(alternative);
+            }
+        }
+
+        // epsilon is dropped next to a closure, that matches it already
+        boolean hasEpsilon = others.remove(this.epsilon);
+        if (hasEpsilon) {
+            for (int alternative : new ArrayList<>(others)) {
+                if (this.kinds[alternative] == KLEENE) {
+                    hasEpsilon = false;
+                    break;
+                } else if (this.kinds[alternative] == POSITIVE) {
+                    others.remove(alternative);
+                    others.add(kleene(this.lefts[alternative]));
+                    hasEpsilon = false;
+                    break;
+                }
+            }
+        }
+
+        // the alternatives starting with the same node are factored, ab|ac is a(b|c)
+        LinkedHashMap<Integer, List<Integer>> tails = new LinkedHashMap<>();
+        List<Integer> sorted = new ArrayList<>(others);
+        Collections.sort(sorted);
+        for (int alternative : sorted) {
+            boolean isConcatenation = this.kinds[alternative] == CONCATENATION;
+            int head = isConcatenation ? this.lefts[alternative] : alternative;
+            tails.computeIfAbsent(head, k -> new ArrayList<>())
+                    .add(isConcatenation ? this.rights[alternative] : this.epsilon);
+        }
+        List<Integer> result = new ArrayList<>();
+        for (Map.Entry<Integer, List<Integer>> entry : tails.entrySet()) {
+            List<Integer> rests = entry.getValue();
+            result.add(concatenation(entry.getKey(), (rests.size() == 1) ? rests.get(0) : union(rests)));
+        }
+        if (ranges.length() > 0) {
+            result.add(characterClass(ranges.toString()));
+        }
+        if (hasEpsilon) {
+            result.add(this.epsilon);
+        }
+        if (result.isEmpty()) {
+            return this.epsilon;
+        }
+
+        Collections.sort(result);
+        int union = result.get(result.size() - 1);
+        for (int i = result.size() - 2; i >= 0; i--) {
+            union = node(UNION, result.get(i), union);
+        }
+        return union;
+    }
+
+    /**
+     * @param ranges pairs of characters low, high, in any order
+     * @return the class node of the union of the ranges
+     */
+    private int characterClass(String ranges) {
+        int[] pairs = new int[ranges.length() / 2];
+        for (int i = 0; i < pairs.length; i++) {
+            pairs[i] = (ranges.charAt(2 * i) << 16) | ranges.charAt(2 * i + 1);
+        }
+        Arrays.sort(pairs);
+        StringBuilder merged = new StringBuilder();
+        int low = -1;
+        int high = -2;
+        for (int pair : pairs) {
+            int nextLow = pair >>> 16;
+            int nextHigh = pair & 0xFFFF;
+            if (nextLow > high + 1) {
+                if (low >= 0) {
+                    merged.append((char) low).append((char) high);
+                }
+                low = nextLow;
+                high = nextHigh;
+            } else {
+                high = Math.max(high, nextHigh);
+            }
+        }
+        merged.append((char) low).append((char) high);
+
+        String key = merged.toString();
+        Integer characterClass = this.classIndex.get(key);
+        if (characterClass == null) {
+            characterClass = this.classes.size();
+            this.classes.add(key);
+            this.classIndex.put(key, characterClass);
+        }
+        return node(CLASS, characterClass, 0);
+    }
+
+    /**
+     * @return the node of the given kind and children, created if it is not in the forest yet
+     */
+    private int node(int kind, int left, int right) {
+        long key = ((long) kind << 58) | ((long) left << 29) | right;
+        Integer node = this.index.get(key);
+        if (node == null) {
+            if (this.nodeCount == this.kinds.length) {
+                int capacity = this.nodeCount * 2;
+                this.kinds = Arrays.copyOf(this.kinds, capacity);
+                this.lefts = Arrays.copyOf(this.lefts, capacity);
+                this.rights = Arrays.copyOf(this.rights, capacity);
+                this.uses = Arrays.copyOf(this.uses, capacity);
+                this.templates = Arrays.copyOf(this.templates, capacity);
+            }
+            this.kinds[this.nodeCount] = kind;
+            this.lefts[this.nodeCount] = left;
+            this.rights[this.nodeCount] = right;
+            node = this.nodeCount++;
+            this.index.put(key, node);
+        }
+        return node;
+    }
+
+    /**
+     * Builds the Thompson NFA of a node.
+     *
+     * @param root the node, returned by {@link #intern} or by the other node methods
+     * @return the NFA, with a single start state and a single accepting state
+     */
+    public synchronized Nfa build(int root) {
+        Nfa nfa = new Nfa();
+        long fragment = emitInline(nfa, root);
+        nfa.setStart((int) (fragment >>> 32));
+        nfa.setAccept((int) fragment);
+        return nfa;
+    }
+
+    /**
+     * Adds the fragment of a node to an NFA, copying its template if the node appears more than
+     * once.
+     *
+     * @return the start state of the fragment in the high 32 bits, and its end state
+     */
+    private long emit(Nfa nfa, int node) {
+        int kind = this.kinds[node];
+        if (this.uses[node] < 2 || kind == EPSILON || kind == CLASS || kind == NAME) {
+            return emitInline(nfa, node);
+        }
+        Nfa template = this.templates[node];
+        if (template == null) {
+            template = build(node);
+            this.templates[node] = template;
+        }
+        int offset = nfa.append(template);
+        this.copiedStates += template.getStateCount();
+        return ((long) (template.getStart() + offset) << 32) | (template.getAccept() + offset);
+    }
+
+    /**
+     * Builds the fragment of a node into an NFA, the fragments of its children being emitted.
+     */
+    private long emitInline(Nfa nfa, int node) {
+        int start;
+        int end;
+        switch (this.kinds[node]) {
+            case EPSILON:
+                start = nfa.addState();
+                end = start;
+                this.builtStates++;
+                break;
+            case CLASS: {
+                start = nfa.addState();
+                end = nfa.addState();
+                String ranges = this.classes.get(this.lefts[node]);
+                for (int i = 0; i < ranges.length(); i += 2) {
+                    nfa.addEdge(start, ranges.charAt(i), ranges.charAt(i + 1), end);
+                }
+                this.builtStates += 2;
+                break;
+            }
+            case NAME:
+                return emitAutomaton(nfa, this.names.get(this.lefts[node]));
+            case KLEENE:
+            case POSITIVE: {
+                long child = emit(nfa, this.lefts[node]);
+                start = nfa.addState();
+                end = nfa.addState();
+                nfa.addEpsilon(start, (int) (child >>> 32));
+                nfa.addEpsilon((int) child, (int) (child >>> 32));
+                nfa.addEpsilon((int) child, end);
+                if (this.kinds[node] == KLEENE) {
+                    nfa.addEpsilon(start, end);
+                }
+                this.builtStates += 2;
+                break;
+            }
+            case CONCATENATION: {
+                long first = emit(nfa, this.lefts[node]);
+                long second = emit(nfa, this.rights[node]);
+                nfa.addEpsilon((int) first, (int) (second >>> 32));
+                start = (int) (first >>> 32);
+                end = (int) second;
+                break;
+            }
+            default: {
+                // all the alternatives of the union share the same pair of states
+                start = nfa.addState();
+                end = nfa.addState();
+                this.builtStates += 2;
+                int rest = node;
+                while (rest >= 0) {
+                    int alternative = rest;
+                    rest = -1;
+                    if (this.kinds[alternative] == UNION) {
+                        rest = this.rights[alternative];
+                        alternative = this.lefts[alternative];
+                    }
+                    long fragment = emit(nfa, alternative);
+                    nfa.addEpsilon(start, (int) (fragment >>> 32));
+                    nfa.addEpsilon((int) fragment, end);
+                }
+                break;
+            }
+        }
+        return ((long) start << 32) | end;
+    }
+
+    /**
+     * Copies an automaton into an NFA. The end state of the fragment is its accepting state, or a
+     * new state its accepting states lead to if it has several.
+     */
+    private long emitAutomaton(Nfa nfa, Automaton automaton) {
+        HashMap<State, Integer> states = new HashMap<>();
+        for (State state : automaton.getStates()) {
+            states.put(state, nfa.addState());
+        }
+        for (Map.Entry<Pair<State, String>, HashSet<State>> transition : automaton.getTransitions().entrySet()) {
+            int from = states.computeIfAbsent(transition.getKey().getFirst(), k -> nfa.addState());
+            String symbol = transition.getKey().getSecond();
+            for (State target : transition.getValue()) {
+                int to = states.computeIfAbsent(target, k -> nfa.addState());
+                if (symbol.equals(automaton.getEpsilonSymbol())) {
+                    nfa.addEpsilon(from, to);
+                } else {
+                    nfa.addEdge(from, CharRange.from(symbol), CharRange.to(symbol), to);
+                }
+            }
+        }
+        int start = states.computeIfAbsent(automaton.getStart(), k -> nfa.addState());
+        int end;
+        if (automaton.getAccepting().size() == 1) {
+            end = states.computeIfAbsent(automaton.getAccepting().iterator().next(), k -> nfa.addState());
+        } else {
+            end = nfa.addState();
+            for (State state : automaton.getAccepting()) {
+                nfa.addEpsilon(states.computeIfAbsent(state, k -> nfa.addState()), end);
+            }
+            this.copiedStates++;
+        }
+        this.copiedStates += states.size();
+        return ((long) start << 32) | end;
+    }
+
+    // The trees are read by the FollowposBuilder through the methods below, holding the lock of
+    // the forest.
+
+    int kind(int node) {
+        return this.kinds[node];
+    }
+
+    int left(int node) {
+        return this.lefts[node];
+    }
+
+    int right(int node) {
+        return this.rights[node];
+    }
+
+    /**
+     * @return the ranges of a class node, as pairs of characters low, high
+     */
+    String ranges(int node) {
+        return this.classes.get(this.lefts[node]);
+    }
+
+    /**
+     * @return the automaton of a name node
+     */
+    Automaton automaton(int node) {
+        return this.names.get(this.lefts[node]);
+    }
+
+    /**
+     * @return the number of distinct nodes in the forest
+     */
+    public synchronized int getNodeCount() {
+        return this.nodeCount;
+    }
+
+    /**
+     * @return the number of nodes the regexes would have as separate trees, before simplification
+     */
+    public synchronized long getTreeNodeCount() {
+        return this.treeNodes;
+    }
+
+    /**
+     * @return the number of NFA states built by the construction
+     */
+    public synchronized long getBuiltStateCount() {
+        return this.builtStates;
+    }
+
+    /**
+     * @return the number of NFA states copied from the templates of shared nodes and from the
+     * automata of names
+     */
+    public synchronized long getCopiedStateCount() {
+        return this.copiedStates;
+    }
+}
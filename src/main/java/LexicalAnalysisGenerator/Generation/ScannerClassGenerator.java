@@ -0,0 +1,510 @@
+package LexicalAnalysisGenerator.Generation;
+
+import LexicalAnalysisGenerator.Analysis.LexicalAnalyzer;
+import LexicalAnalysisGenerator.Analysis.Tokenizer;
+import LexicalAnalysisGenerator.Automaton.Automaton;
+import LexicalAnalysisGenerator.Automaton.CompiledDfa;
+
+import javax.lang.model.SourceVersion;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * This class turns a compiled DFA into a scanner class at runtime, without generating source or
+ * running javac, so that rules loaded at runtime are scanned by JIT-compiled code made for them.
+ * The class is a {@link Tokenizer} whose match() is the DFA written as bytecode: every state is a
+ * block of code that reads a character, then jumps to the block of the next state after a binary
+ * search over the character ranges of the state, so scanning loads nothing but the input.
+ * Every class is defined by a class loader of its own, so it is unloaded with its scanners.
+ * <p>
+ * The class files have version 50 (Java 6), whose methods need no stack map frames. HotSpot does
+ * not JIT-compile a method larger than 8000 bytes of bytecode, so when match() would be larger
+ * the analyzer runs the table driven {@link Tokenizer} instead.
+ */
+public class ScannerClassGenerator {
+    // The largest match() that is defined, HotSpot doesn't compile larger methods.
+    private static final int MAX_MATCH_SIZE = 8000;
+    // The number of ranges of a state tested one after the other, above that they are split in two.
+    private static final int LINEAR_TESTS = 3;
+
+    private static final String TOKENIZER = "LexicalAnalysisGenerator/Analysis/Tokenizer";
+    private static final String STRING_CONSTRUCTOR = "(LLexicalAnalysisGenerator/Analysis/LexicalAnalyzer;Ljava/lang/CharSequence;)V";
+    private static final String READER_CONSTRUCTOR = "(LLexicalAnalysisGenerator/Analysis/LexicalAnalyzer;Ljava/io/Reader;)V";
+
+    // The local variables of match()
+    private static final int BUFFER = 1;
+    private static final int LIMIT = 2;
+    private static final int P = 3;
+    private static final int ACCEPTED_END = 4;
+    private static final int ACCEPTED_TOKEN = 5;
+    private static final int C = 6;
+    private static final int SHIFT = 7;
+
+    private static final AtomicInteger classNumber = new AtomicInteger();
+
+    /**
+     * Builds a lexical analyzer whose tokenizers run a class generated for the tokens of a lexical
+     * rules file.
+     *
+     * @param automata   the minimized automata of the rules, keyed by their names
+     * @param tokenNames the names of the tokens ordered from the highest to the lowest priority
+     * @return the lexical analyzer recognizing the given tokens
+     */
+    public LexicalAnalyzer define(Map<String, Automaton> automata, List<String> tokenNames) {
+        return define(LexicalAnalyzer.compile(automata, tokenNames));
+    }
+
+    /**
+     * Builds a lexical analyzer whose tokenizers run a class generated for a compiled DFA. If the
+     * DFA is too large to be compiled by the JIT, the analyzer runs the DFA tables instead.
+     *
+     * @param dfa the compiled DFA
+     * @return the lexical analyzer running the given DFA
+     */
+    public LexicalAnalyzer define(CompiledDfa dfa) {
+        ConstantPool pool = new ConstantPool();
+        byte[] match = matchCode(dfa, pool);
+        if (match == null || match.length > MAX_MATCH_SIZE) {
+            return new LexicalAnalyzer(dfa);
+        }
+        String className = ScannerClassGenerator.class.getPackage().getName() + ".GeneratedScanner"
+                + classNumber.incrementAndGet();
+        byte[] classFile = classFile(className, pool, match);
+        Class<? extends Tokenizer> scannerClass = new ScannerClassLoader().define(className, classFile)
+                .asSubclass(Tokenizer.class);
+        try {
+            return new DefinedAnalyzer(dfa, scannerClass.getConstructor(LexicalAnalyzer.class, CharSequence.class),
+                    scannerClass.getConstructor(LexicalAnalyzer.class, Reader.class));
+        } catch (NoSuchMethodException e) {
+            throw new IllegalStateException("The generated scanner has no constructor.", e);
+        }
+    }
+
+    /**
+     * Generates the class file of a scanner running a compiled DFA.
+     *
+     * @param dfa       the compiled DFA
+     * @param className the name of the generated class, qualified by its package if it has one
+     * @return the class file, a subclass of {@link Tokenizer} with the same constructors
+     */
+    public byte[] generate(CompiledDfa dfa, String className) {
+        if (!SourceVersion.isName(className)) {
+            throw new IllegalArgumentException("Invalid class name \"" + className + "\".");
+        }
+        ConstantPool pool = new ConstantPool();
+        byte[] match = matchCode(dfa, pool);
+        if (match == null) {
+            throw new IllegalArgumentException("The DFA is too large (" + dfa.getStateCount()
+                    + " states) to be compiled to bytecode.");
+        }
+        return classFile(className, pool, match);
+    }
+
+    /**
+     * Generates the bytecode of match(). The method starts like the one of {@link Tokenizer}, then
+     * every state is the code:
+     * <pre>
+     * enter:  acceptedEnd = p; acceptedToken = token;   (if the state is accepting)
+     * check:  if (p == limit) { refill the buffer, or go to end at the end of the input }
+     *         c = buffer[p++];
+     *         the range tests, jumping to the enter label of the next state
+     *         goto end;
+     * </pre>
+     * and the end stores acceptedToken into tokenType and returns acceptedEnd.
+     *
+     * @param pool the constant pool of the class, the constants of the code are added to it
+     * @return the code, or null if it is too large for the jumps
+     */
+    private byte[] matchCode(CompiledDfa dfa, ConstantPool pool) {
+        int[] acceptTokens = dfa.getAcceptTokens();
+        List<int[]> runs = ScannerGenerator.classRuns(dfa);
+        int stateCount = dfa.getStateCount();
+        Code code = new Code();
+        int[] enter = new int[stateCount];
+        int[] check = new int[stateCount];
+        for (int state = 0; state < stateCount; state++) {
+            enter[state] = code.newLabel();
+            check[state] = code.newLabel();
+        }
+        int end = code.newLabel();
+        int bufferField = pool.fieldRef(TOKENIZER, "buffer", "[C");
+        int limitField = pool.fieldRef(TOKENIZER, "limit", "I");
+
+        code.op(Code.ALOAD_0).op(Code.GETFIELD).u2(bufferField).op(Code.ASTORE).u1(BUFFER);
+        code.op(Code.ALOAD_0).op(Code.GETFIELD).u2(limitField).op(Code.ISTORE).u1(LIMIT);
+        code.op(Code.ALOAD_0).op(Code.GETFIELD).u2(pool.fieldRef(TOKENIZER, "tokenStart", "I"));
+        code.op(Code.DUP).op(Code.ISTORE).u1(P);
+        code.op(Code.ICONST_0 + 1).op(Code.IADD).op(Code.ISTORE).u1(ACCEPTED_END);
+        code.pushInt(LexicalAnalyzer.ERROR, pool).op(Code.ISTORE).u1(ACCEPTED_TOKEN);
+        // the start state is only entered through its transitions when it is accepting
+        if (acceptTokens[0] >= 0) {
+            code.jump(Code.GOTO, check[0]);
+        }
+
+        int fill = pool.methodRef(TOKENIZER, "fill", "()I");
+        for (int state = 0; state < stateCount; state++) {
+            code.bind(enter[state]);
+            if (acceptTokens[state] >= 0) {
+                code.op(Code.ILOAD).u1(P).op(Code.ISTORE).u1(ACCEPTED_END);
+                code.pushInt(acceptTokens[state], pool).op(Code.ISTORE).u1(ACCEPTED_TOKEN);
+            }
+            code.bind(check[state]);
+            int read = code.newLabel();
+            code.op(Code.ILOAD).u1(P).op(Code.ILOAD).u1(LIMIT).jump(Code.IF_ICMPNE, read);
+            code.op(Code.ALOAD_0).op(Code.INVOKEVIRTUAL).u2(fill);
+            code.op(Code.DUP).op(Code.ISTORE).u1(SHIFT).jump(Code.IFLT, end);
+            code.op(Code.ILOAD).u1(P).op(Code.ILOAD).u1(SHIFT).op(Code.ISUB).op(Code.ISTORE).u1(P);
+            code.op(Code.ILOAD).u1(ACCEPTED_END).op(Code.ILOAD).u1(SHIFT).op(Code.ISUB).op(Code.ISTORE).u1(ACCEPTED_END);
+            code.op(Code.ALOAD_0).op(Code.GETFIELD).u2(bufferField).op(Code.ASTORE).u1(BUFFER);
+            code.op(Code.ALOAD_0).op(Code.GETFIELD).u2(limitField).op(Code.ISTORE).u1(LIMIT);
+            code.bind(read);
+            code.op(Code.ALOAD).u1(BUFFER).op(Code.ILOAD).u1(P).op(Code.CALOAD).op(Code.ISTORE).u1(C);
+            code.op(Code.IINC).u1(P).u1(1);
+            List<int[]> ranges = ScannerGenerator.stateRanges(dfa, runs, state);
+            appendRangeTests(code, pool, ranges, 0, ranges.size(), enter, end);
+        }
+
+        code.bind(end);
+        code.op(Code.ALOAD_0).op(Code.ILOAD).u1(ACCEPTED_TOKEN);
+        code.op(Code.PUTFIELD).u2(pool.fieldRef(TOKENIZER, "tokenType", "I"));
+        code.op(Code.ILOAD).u1(ACCEPTED_END).op(Code.IRETURN);
+        return code.resolve();
+    }
+
+    /**
+     * Adds the tests of the ranges from..to-1 of a state, as a binary search when there are many.
+     * The ranges are sorted, so a character below a range matches none of the following ones.
+     */
+    private void appendRangeTests(Code code, ConstantPool pool, List<int[]> ranges, int from, int to,
+                                  int[] enter, int end) {
+        if (to - from <= LINEAR_TESTS) {
+            for (int i = from; i < to; i++) {
+                int[] range = ranges.get(i);
+                code.op(Code.ILOAD).u1(C).pushInt(range[0], pool);
+                if (range[0] == range[1]) {
+                    code.jump(Code.IF_ICMPEQ, enter[range[2]]);
+                } else {
+                    code.jump(Code.IF_ICMPLT, end);
+                    code.op(Code.ILOAD).u1(C).pushInt(range[1], pool).jump(Code.IF_ICMPLE, enter[range[2]]);
+                }
+            }
+            code.jump(Code.GOTO, end);
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        int left = code.newLabel();
+        code.op(Code.ILOAD).u1(C).pushInt(ranges.get(middle)[0], pool).jump(Code.IF_ICMPLT, left);
+        appendRangeTests(code, pool, ranges, middle, to, enter, end);
+        code.bind(left);
+        appendRangeTests(code, pool, ranges, from, middle, enter, end);
+    }
+
+    /**
+     * Writes the class file of a scanner: a public final subclass of {@link Tokenizer} with its two
+     * constructors and match().
+     */
+    private byte[] classFile(String className, ConstantPool pool, byte[] match) {
+        int thisClass = pool.classRef(className.replace('.', '/'));
+        int superClass = pool.classRef(TOKENIZER);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            // the constructors only call the constructors of Tokenizer
+            byte[][] constructors = new byte[2][];
+            String[] descriptors = {STRING_CONSTRUCTOR, READER_CONSTRUCTOR};
+            for (int i = 0; i < 2; i++) {
+                Code code = new Code();
+                code.op(Code.ALOAD_0).op(Code.ALOAD_0 + 1).op(Code.ALOAD_0 + 2);
+                code.op(Code.INVOKESPECIAL).u2(pool.methodRef(TOKENIZER, "<init>", descriptors[i]));
+                code.op(Code.RETURN);
+                constructors[i] = code.resolve();
+            }
+            int codeName = pool.utf8("Code");
+            int initName = pool.utf8("<init>");
+            int matchName = pool.utf8("match");
+            int matchDescriptor = pool.utf8("()I");
+            int[] constructorDescriptors = {pool.utf8(STRING_CONSTRUCTOR), pool.utf8(READER_CONSTRUCTOR)};
+
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(50);
+            pool.write(out);
+            out.writeShort(Code.ACC_PUBLIC | Code.ACC_FINAL | Code.ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0); // interfaces
+            out.writeShort(0); // fields
+            out.writeShort(3);
+            for (int i = 0; i < 2; i++) {
+                writeMethod(out, Code.ACC_PUBLIC, initName, constructorDescriptors[i], codeName, 3, 3,
+                        constructors[i]);
+            }
+            writeMethod(out, Code.ACC_PROTECTED, matchName, matchDescriptor, codeName, 2, SHIFT + 1, match);
+            out.writeShort(0); // attributes
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    private static void writeMethod(DataOutputStream out, int access, int name, int descriptor, int codeName,
+                                    int maxStack, int maxLocals, byte[] code) throws IOException {
+        out.writeShort(access);
+        out.writeShort(name);
+        out.writeShort(descriptor);
+        out.writeShort(1);
+        out.writeShort(codeName);
+        out.writeInt(12 + code.length);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(code.length);
+        out.write(code);
+        out.writeShort(0); // exception table
+        out.writeShort(0); // attributes
+    }
+
+    /**
+     * The bytecode of a method being written, with forward jumps to labels resolved at the end.
+     */
+    private static class Code {
+        static final int ACC_PUBLIC = 0x0001;
+        static final int ACC_PROTECTED = 0x0004;
+        static final int ACC_FINAL = 0x0010;
+        static final int ACC_SUPER = 0x0020;
+
+        static final int ICONST_0 = 0x03;
+        static final int BIPUSH = 0x10;
+        static final int SIPUSH = 0x11;
+        static final int LDC = 0x12;
+        static final int LDC_W = 0x13;
+        static final int ILOAD = 0x15;
+        static final int ALOAD = 0x19;
+        static final int ALOAD_0 = 0x2a;
+        static final int CALOAD = 0x34;
+        static final int ISTORE = 0x36;
+        static final int ASTORE = 0x3a;
+        static final int DUP = 0x59;
+        static final int IADD = 0x60;
+        static final int ISUB = 0x64;
+        static final int IINC = 0x84;
+        static final int IFLT = 0x9b;
+        static final int IF_ICMPEQ = 0x9f;
+        static final int IF_ICMPNE = 0xa0;
+        static final int IF_ICMPLT = 0xa1;
+        static final int IF_ICMPLE = 0xa4;
+        static final int GOTO = 0xa7;
+        static final int IRETURN = 0xac;
+        static final int RETURN = 0xb1;
+        static final int GETFIELD = 0xb4;
+        static final int PUTFIELD = 0xb5;
+        static final int INVOKEVIRTUAL = 0xb6;
+        static final int INVOKESPECIAL = 0xb7;
+
+        private byte[] bytes = new byte[256];
+        private int length;
+        // The position of every label, or -1 while it is not bound
+        private int[] labels = new int[16];
+        private int labelCount;
+        // The jumps, as {position of the instruction, label}
+        private final List<int[]> jumps = new ArrayList<>();
+
+        Code op(int opcode) {
+            return u1(opcode);
+        }
+
+        Code u1(int value) {
+            if (this.length == this.bytes.length) {
+                this.bytes = Arrays.copyOf(this.bytes, this.length * 2);
+            }
+            this.bytes[this.length++] = (byte) value;
+            return this;
+        }
+
+        Code u2(int value) {
+            return u1(value >> 8).u1(value);
+        }
+
+        /**
+         * Pushes an int constant with the shortest instruction.
+         */
+        Code pushInt(int value, ConstantPool pool) {
+            if (value >= -1 && value <= 5) {
+                return op(ICONST_0 + value);
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                return op(BIPUSH).u1(value);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                return op(SIPUSH).u2(value);
+            }
+            int index = pool.integer(value);
+            return (index <= 0xFF) ? op(LDC).u1(index) : op(LDC_W).u2(index);
+        }
+
+        int newLabel() {
+            if (this.labelCount == this.labels.length) {
+                this.labels = Arrays.copyOf(this.labels, this.labelCount * 2);
+            }
+            this.labels[this.labelCount] = -1;
+            return this.labelCount++;
+        }
+
+        void bind(int label) {
+            this.labels[label] = this.length;
+        }
+
+        Code jump(int opcode, int label) {
+            this.jumps.add(new int[]{this.length, label});
+            return op(opcode).u2(0);
+        }
+
+        /**
+         * @return the code with the offsets of its jumps, or null if an offset doesn't fit in 16 bits
+         */
+        byte[] resolve() {
+            for (int[] jump : this.jumps) {
+                int offset = this.labels[jump[1]] - jump[0];
+                if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE) {
+                    return null;
+                }
+                this.bytes[jump[0] + 1] = (byte) (offset >> 8);
+                this.bytes[jump[0] + 2] = (byte) offset;
+            }
+            return Arrays.copyOf(this.bytes, this.length);
+        }
+    }
+
+    /**
+     * The constant pool of a class being written, every constant being added once.
+     */
+    private static class ConstantPool {
+        private static final int UTF8 = 1;
+        private static final int INTEGER = 3;
+        private static final int CLASS = 7;
+        private static final int FIELD_REF = 9;
+        private static final int METHOD_REF = 10;
+        private static final int NAME_AND_TYPE = 12;
+
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(this.bytes);
+        private final Map<String, Integer> indices = new HashMap<>();
+
+        int utf8(String value) {
+            Integer index = this.indices.get("utf8 " + value);
+            if (index != null) {
+                return index;
+            }
+            try {
+                this.out.writeByte(UTF8);
+                this.out.writeUTF(value);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return add("utf8 " + value);
+        }
+
+        int integer(int value) {
+            return entry("int " + value, INTEGER, value >>> 16, value & 0xFFFF);
+        }
+
+        int classRef(String internalName) {
+            int name = utf8(internalName);
+            return entry("class " + internalName, CLASS, name);
+        }
+
+        int fieldRef(String owner, String name, String descriptor) {
+            return memberRef(FIELD_REF, owner, name, descriptor);
+        }
+
+        int methodRef(String owner, String name, String descriptor) {
+            return memberRef(METHOD_REF, owner, name, descriptor);
+        }
+
+        private int memberRef(int tag, String owner, String name, String descriptor) {
+            int ownerClass = classRef(owner);
+            int nameAndType = entry("nameAndType " + name + " " + descriptor, NAME_AND_TYPE, utf8(name),
+                    utf8(descriptor));
+            return entry(tag + " " + owner + "." + name + " " + descriptor, tag, ownerClass, nameAndType);
+        }
+
+        /**
+         * Adds a constant made of a tag and 16 bit values, unless it is already in the pool.
+         */
+        private int entry(String key, int tag, int... values) {
+            Integer index = this.indices.get(key);
+            if (index != null) {
+                return index;
+            }
+            try {
+                this.out.writeByte(tag);
+                for (int value : values) {
+                    this.out.writeShort(value);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return add(key);
+        }
+
+        private int add(String key) {
+            int index = this.indices.size() + 1;
+            this.indices.put(key, index);
+            return index;
+        }
+
+        void write(DataOutputStream classOut) throws IOException {
+            classOut.writeShort(this.indices.size() + 1);
+            this.bytes.writeTo(classOut);
+        }
+    }
+
+    /**
+     * The class loader of one generated class.
+     */
+    private static class ScannerClassLoader extends ClassLoader {
+        ScannerClassLoader() {
+            super(Tokenizer.class.getClassLoader());
+        }
+
+        Class<?> define(String className, byte[] classFile) {
+            return defineClass(className, classFile, 0, classFile.length);
+        }
+    }
+
+    /**
+     * A lexical analyzer whose tokenizers are instances of a generated class.
+     */
+    private static class DefinedAnalyzer extends LexicalAnalyzer {
+        private final Constructor<? extends Tokenizer> stringConstructor;
+        private final Constructor<? extends Tokenizer> readerConstructor;
+
+        DefinedAnalyzer(CompiledDfa dfa, Constructor<? extends Tokenizer> stringConstructor,
+                        Constructor<? extends Tokenizer> readerConstructor) {
+            super(dfa);
+            this.stringConstructor = stringConstructor;
+            this.readerConstructor = readerConstructor;
+        }
+
+        @Override
+        public Tokenizer tokenize(CharSequence input) {
+            return newTokenizer(this.stringConstructor, input);
+        }
+
+        @Override
+        public Tokenizer tokenize(Reader reader) {
+            return newTokenizer(this.readerConstructor, reader);
+        }
+
+        private Tokenizer newTokenizer(Constructor<? extends Tokenizer> constructor, Object input) {
+            try {
+                return constructor.newInstance(this, input);
+            } catch (InstantiationException | IllegalAccessException | InvocationTargetException e) {
+                throw new IllegalStateException("The generated scanner can't be created.", e);
+            }
+        }
+    }
+}
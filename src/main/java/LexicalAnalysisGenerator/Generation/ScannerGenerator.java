@@ -0,0 +1,585 @@
+package LexicalAnalysisGenerator.Generation;
+
+import LexicalAnalysisGenerator.Analysis.LexicalAnalyzer;
+import LexicalAnalysisGenerator.Automaton.Automaton;
+import LexicalAnalysisGenerator.Automaton.CompiledDfa;
+import LexicalAnalysisGenerator.Automaton.Dfa;
+import LexicalAnalysisGenerator.Creation.LexicalRulesParser;
+
+import javax.lang.model.SourceVersion;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * This class generates the Java source of a standalone scanner from a compiled DFA.
+ * The generated class depends on nothing but the JDK: the class map, the next-state table and the
+ * accepted tokens are static arrays, and its nextToken() runs the same maximal munch loop as the
+ * {@link LexicalAnalysisGenerator.Analysis.Tokenizer}.
+ * <p>
+ * In TABLE mode the DFA is kept as tables. A large array can't be written as an array initializer
+ * (the static initializer of a class is limited to 64 KB of bytecode), so the arrays are run-length
+ * encoded into string literals, as (count, value) character pairs, and unpacked when the class is
+ * loaded.
+ * <p>
+ * In DIRECT mode every state is a case of a switch, that finds the next state with a binary search
+ * over the character ranges of the state written as if statements (as re2c does), so scanning loads
+ * nothing but the input. The code grows with the number of ranges, and HotSpot does not compile a
+ * method larger than 8000 bytes of bytecode, so AUTO only picks DIRECT when the estimated size of
+ * nextToken() stays under that.
+ */
+public class ScannerGenerator {
+    // The number of characters in every string literal of an encoded array, kept even so that no
+    // (count, value) pair is split, and small enough to stay under the 64 KB limit of a constant.
+    private static final int CHUNK_SIZE = 16 * 1024;
+    // The largest estimated bytecode size of a direct coded nextToken() that AUTO picks, under the
+    // 8000 bytes HotSpot compiles.
+    private static final int DIRECT_CODE_LIMIT = 7000;
+    // The largest estimated size of a direct coded nextToken() that is generated at all: past 32 KB
+    // javac has to use wide jumps, that make the code much larger and soon over the 64 KB limit.
+    private static final int MAX_DIRECT_CODE_SIZE = 32 * 1024;
+    // The number of ranges of a state tested one after the other, above that they are split in two.
+    private static final int LINEAR_TESTS = 3;
+
+    /**
+     * Generates a scanner for the tokens of a lexical rules file.
+     *
+     * @param automata   the automata of the rules, keyed by their names
+     * @param tokenNames the names of the tokens ordered from the highest to the lowest priority
+     * @param className  the name of the generated class, qualified by its package if it has one
+     * @return the source of the generated class
+     */
+    public String generate(Map<String, Automaton> automata, List<String> tokenNames, String className) {
+        return generate(LexicalAnalyzer.compile(automata, tokenNames), className);
+    }
+
+    /**
+     * Generates a scanner running a compiled DFA, choosing the mode from the size of the DFA.
+     *
+     * @param dfa       the compiled DFA
+     * @param className the name of the generated class, qualified by its package if it has one
+     * @return the source of the generated class
+     */
+    public String generate(CompiledDfa dfa, String className) {
+        return generate(dfa, className, ScannerMode.AUTO);
+    }
+
+    /**
+     * Generates a scanner running a compiled DFA.
+     *
+     * @param dfa       the compiled DFA
+     * @param className the name of the generated class, qualified by its package if it has one
+     * @param mode      the way the scanner runs the DFA
+     * @return the source of the generated class
+     */
+    public String generate(CompiledDfa dfa, String className, ScannerMode mode) {
+        if (!SourceVersion.isName(className)) {
+            throw new IllegalArgumentException("Invalid class name \"" + className + "\".");
+        }
+        if (dfa.getStateCount() >= Character.MAX_VALUE) {
+            throw new IllegalArgumentException("The DFA has too many states (" + dfa.getStateCount()
+                    + ") to be encoded.");
+        }
+        if (mode == ScannerMode.AUTO) {
+            mode = chooseMode(dfa);
+        } else if (mode == ScannerMode.DIRECT && estimateDirectCodeSize(dfa) > MAX_DIRECT_CODE_SIZE) {
+            throw new IllegalArgumentException("The DFA is too large (" + dfa.getStateCount()
+                    + " states) to be direct coded.");
+        }
+        int dot = className.lastIndexOf('.');
+        String packageName = (dot < 0) ? null : className.substring(0, dot);
+        String simpleName = className.substring(dot + 1);
+        List<String> tokenNames = dfa.getTokenNames();
+
+        StringBuilder out = new StringBuilder();
+        if (packageName != null) {
+            out.append("package ").append(packageName).append(";\n\n");
+        }
+        out.append("import java.io.IOException;\n");
+        out.append("import java.io.Reader;\n");
+        out.append("import java.util.Arrays;\n\n");
+        out.append("/**\n");
+        out.append(" * A scanner generated from lexical rules, do not edit.\n");
+        out.append(" * It splits its input into the longest tokens it can match, skipping the white space between\n");
+        out.append(" * them; a character that starts no token is returned as a one character ERROR token.\n");
+        out.append(" */\n");
+        out.append("public class ").append(simpleName).append(" {\n");
+        out.append("    public static final int EOF = -1;\n");
+        out.append("    public static final int ERROR = -2;\n");
+        appendTokenConstants(out, tokenNames);
+        out.append("\n");
+        out.append("    private static final String[] TOKEN_NAMES = {");
+        for (int i = 0; i < tokenNames.size(); i++) {
+            out.append((i == 0) ? "" : ", ").append(stringLiteral(tokenNames.get(i)));
+        }
+        out.append("};\n");
+        if (mode == ScannerMode.TABLE) {
+            out.append("    private static final int CLASS_COUNT = ").append(dfa.getClassCount()).append(";\n");
+            char[] classMap = dfa.getClassMap();
+            int[] classes = new int[classMap.length];
+            for (int i = 0; i < classMap.length; i++) {
+                classes[i] = classMap[i];
+            }
+            appendEncodedArray(out, "char[] CLASS_MAP", "unpackChars", classes, 0);
+            appendEncodedArray(out, "int[] TABLE", "unpackInts", dfa.getTable(), 1);
+            appendEncodedArray(out, "int[] ACCEPT", "unpackInts", dfa.getAcceptTokens(), 1);
+        }
+        out.append("\n");
+        appendScannerBody(out, simpleName, dfa, mode);
+        out.append("}\n");
+        return out.toString();
+    }
+
+    /**
+     * Generates a scanner and writes it under a source directory, in the directory of its package.
+     *
+     * @return the path of the written file
+     * @throws IOException if writing the file fails
+     */
+    public Path write(CompiledDfa dfa, String className, ScannerMode mode, Path sourceDirectory)
+            throws IOException {
+        Path file = sourceDirectory.resolve(className.replace('.', '/') + ".java");
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        Files.write(file, generate(dfa, className, mode).getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    /**
+     * @return DIRECT if the direct coded nextToken() of the DFA is small enough to be compiled by
+     * the JIT, TABLE otherwise
+     */
+    public ScannerMode chooseMode(CompiledDfa dfa) {
+        return (estimateDirectCodeSize(dfa) <= DIRECT_CODE_LIMIT) ? ScannerMode.DIRECT : ScannerMode.TABLE;
+    }
+
+    /**
+     * Estimates the bytecode size of a direct coded nextToken(): every state takes a switch entry
+     * and its input check, and every range of characters leading out of a state takes a test, a branch of the binary
+     * search, and the transition with its accept bookkeeping.
+     *
+     * @return the estimated size in bytes
+     */
+    public int estimateDirectCodeSize(CompiledDfa dfa) {
+        List<int[]> runs = classRuns(dfa);
+        long size = 240;
+        for (int state = 0; state < dfa.getStateCount(); state++) {
+            size += 50 + 30L * stateRanges(dfa, runs, state).size();
+        }
+        return (int) Math.min(size, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Adds a constant for every token whose upper case name is a Java identifier.
+     */
+    private void appendTokenConstants(StringBuilder out, List<String> tokenNames) {
+        Set<String> names = new HashSet<>(Arrays.asList("EOF", "ERROR", "TOKEN_NAMES", "CLASS_COUNT", "CLASS_MAP",
+                "TABLE", "ACCEPT", "BUFFER_SIZE"));
+        for (int i = 0; i < tokenNames.size(); i++) {
+            String name = tokenNames.get(i).toUpperCase(Locale.ROOT);
+            if (SourceVersion.isIdentifier(name) && !SourceVersion.isKeyword(name) && names.add(name)) {
+                out.append("    public static final int ").append(name).append(" = ").append(i).append(";\n");
+            }
+        }
+    }
+
+    /**
+     * Adds a static array, run-length encoded into string literals. Every value is stored plus the
+     * given bias, so that -1 can be encoded as a character.
+     */
+    private void appendEncodedArray(StringBuilder out, String declaration, String unpacker, int[] values, int bias) {
+        StringBuilder encoded = new StringBuilder();
+        for (int i = 0; i < values.length; ) {
+            int count = 1;
+            while (i + count < values.length && values[i + count] == values[i] && count < Character.MAX_VALUE) {
+                count++;
+            }
+            encoded.append((char) count).append((char) (values[i] + bias));
+            i += count;
+        }
+        out.append("    private static final ").append(declaration).append(" = ").append(unpacker)
+                .append("(new String[]{");
+        for (int start = 0; start < encoded.length(); start += CHUNK_SIZE) {
+            out.append((start == 0) ? "\n            " : ",\n            ");
+            out.append(stringLiteral(encoded.substring(start, Math.min(start + CHUNK_SIZE, encoded.length()))));
+        }
+        out.append("}, ").append(values.length).append(");\n");
+    }
+
+    /**
+     * Adds the fields, the constructors and the methods of the scanner.
+     */
+    private void appendScannerBody(StringBuilder out, String simpleName, CompiledDfa dfa, ScannerMode mode) {
+        out.append("    private static final int BUFFER_SIZE = 1 << 16;\n");
+        out.append("\n");
+        out.append("    private final Reader reader;\n");
+        out.append("    private char[] buffer;\n");
+        out.append("    private char[] spare;\n");
+        out.append("    private int limit;\n");
+        out.append("    private int position;\n");
+        out.append("    private int offset;\n");
+        out.append("    private int tokenType;\n");
+        out.append("    private int tokenStart;\n");
+        out.append("    private int tokenEnd;\n");
+        out.append("\n");
+        out.append("    public ").append(simpleName).append("(CharSequence input) {\n");
+        out.append("        this.reader = null;\n");
+        out.append("        this.buffer = input.toString().toCharArray();\n");
+        out.append("        this.limit = this.buffer.length;\n");
+        out.append("    }\n");
+        out.append("\n");
+        out.append("    public ").append(simpleName).append("(Reader reader) {\n");
+        out.append("        this.reader = reader;\n");
+        out.append("        this.buffer = new char[BUFFER_SIZE];\n");
+        out.append("    }\n");
+        out.append("\n");
+        out.append("    /**\n");
+        out.append("     * Scans the next token.\n");
+        out.append("     *\n");
+        out.append("     * @return the type of the token, EOF at the end of the input, or ERROR for an unknown character\n");
+        out.append("     * @throws IOException if reading the input fails\n");
+        out.append("     */\n");
+        out.append("    public int nextToken() throws IOException {\n");
+        out.append("        while (true) {\n");
+        out.append("            this.tokenStart = this.position;\n");
+        out.append("            if (this.position == this.limit && fill() < 0) {\n");
+        out.append("                this.tokenEnd = this.tokenStart = this.position;\n");
+        out.append("                return this.tokenType = EOF;\n");
+        out.append("            }\n");
+        out.append("            if (!Character.isWhitespace(this.buffer[this.position])) {\n");
+        out.append("                break;\n");
+        out.append("            }\n");
+        out.append("            this.position++;\n");
+        out.append("        }\n");
+        out.append("\n");
+        out.append("        int state = 0;\n");
+        out.append("        int acceptedToken = ERROR;\n");
+        out.append("        int acceptedEnd = this.tokenStart + 1;\n");
+        out.append("        int p = this.tokenStart;\n");
+        if (mode == ScannerMode.DIRECT) {
+            appendDirectLoop(out, dfa);
+        } else {
+            appendTableLoop(out);
+        }
+        out.append("\n");
+        out.append("        this.tokenEnd = this.position = acceptedEnd;\n");
+        out.append("        return this.tokenType = acceptedToken;\n");
+        out.append("    }\n");
+        out.append("\n");
+        out.append("    /**\n");
+        out.append("     * Reads more input into the buffer. When the buffer is full, the current token is moved to the\n");
+        out.append("     * start of the spare buffer (or of a larger one), the buffers being swapped once input is read.\n");
+        out.append("     *\n");
+        out.append("     * @return the number of characters the buffer content was shifted by, at least one character\n");
+        out.append("     * having been read, or -1 at the end of the input, the buffer being left unchanged\n");
+        out.append("     */\n");
+        out.append("    private int fill() throws IOException {\n");
+        out.append("        if (this.reader == null) {\n");
+        out.append("            return -1;\n");
+        out.append("        }\n");
+        out.append("        char[] target = this.buffer;\n");
+        out.append("        int shift = 0;\n");
+        out.append("        if (this.limit == this.buffer.length) {\n");
+        out.append("            shift = this.tokenStart;\n");
+        out.append("            if (shift == 0) {\n");
+        out.append("                target = new char[this.buffer.length * 2];\n");
+        out.append("            } else {\n");
+        out.append("                if (this.spare == null) {\n");
+        out.append("                    this.spare = new char[this.buffer.length];\n");
+        out.append("                }\n");
+        out.append("                target = this.spare;\n");
+        out.append("            }\n");
+        out.append("            System.arraycopy(this.buffer, shift, target, 0, this.limit - shift);\n");
+        out.append("        }\n");
+        out.append("        int length = this.limit - shift;\n");
+        out.append("        int read;\n");
+        out.append("        do {\n");
+        out.append("            read = this.reader.read(target, length, target.length - length);\n");
+        out.append("        } while (read == 0);\n");
+        out.append("        if (read < 0) {\n");
+        out.append("            return -1;\n");
+        out.append("        }\n");
+        out.append("        if (target != this.buffer) {\n");
+        out.append("            this.spare = (target.length == this.buffer.length) ? this.buffer : null;\n");
+        out.append("            this.buffer = target;\n");
+        out.append("        }\n");
+        out.append("        this.limit = length + read;\n");
+        out.append("        this.position -= shift;\n");
+        out.append("        this.tokenStart -= shift;\n");
+        out.append("        this.offset += shift;\n");
+        out.append("        return shift;\n");
+        out.append("    }\n");
+        out.append("\n");
+        out.append("    public int getTokenType() {\n");
+        out.append("        return this.tokenType;\n");
+        out.append("    }\n");
+        out.append("\n");
+        out.append("    /**\n");
+        out.append("     * @return the name of the current token, or null for EOF and ERROR\n");
+        out.append("     */\n");
+        out.append("    public String getTokenName() {\n");
+        out.append("        return getTokenName(this.tokenType);\n");
+        out.append("    }\n");
+        out.append("\n");
+        out.append("    public static String getTokenName(int tokenType) {\n");
+        out.append("        return (tokenType < 0) ? null : TOKEN_NAMES[tokenType];\n");
+        out.append("    }\n");
+        out.append("\n");
+        out.append("    public int getTokenStart() {\n");
+        out.append("        return this.offset + this.tokenStart;\n");
+        out.append("    }\n");
+        out.append("\n");
+        out.append("    public int getTokenEnd() {\n");
+        out.append("        return this.offset + this.tokenEnd;\n");
+        out.append("    }\n");
+        out.append("\n");
+        out.append("    public String getLexeme() {\n");
+        out.append("        return new String(this.buffer, this.tokenStart, this.tokenEnd - this.tokenStart);\n");
+        out.append("    }\n");
+        if (mode == ScannerMode.TABLE) {
+            appendUnpackers(out);
+        }
+    }
+
+    /**
+     * Adds the methods decoding the arrays of the encoded tables.
+     */
+    private void appendUnpackers(StringBuilder out) {
+        out.append("\n");
+        out.append("    private static char[] unpackChars(String[] packed, int length) {\n");
+        out.append("        char[] values = new char[length];\n");
+        out.append("        int i = 0;\n");
+        out.append("        for (String chunk : packed) {\n");
+        out.append("            for (int j = 0; j < chunk.length(); j += 2) {\n");
+        out.append("                int count = chunk.charAt(j);\n");
+        out.append("                Arrays.fill(values, i, i + count, chunk.charAt(j + 1));\n");
+        out.append("                i += count;\n");
+        out.append("            }\n");
+        out.append("        }\n");
+        out.append("        return values;\n");
+        out.append("    }\n");
+        out.append("\n");
+        out.append("    private static int[] unpackInts(String[] packed, int length) {\n");
+        out.append("        int[] values = new int[length];\n");
+        out.append("        int i = 0;\n");
+        out.append("        for (String chunk : packed) {\n");
+        out.append("            for (int j = 0; j < chunk.length(); j += 2) {\n");
+        out.append("                int count = chunk.charAt(j);\n");
+        out.append("                Arrays.fill(values, i, i + count, chunk.charAt(j + 1) - 1);\n");
+        out.append("                i += count;\n");
+        out.append("            }\n");
+        out.append("        }\n");
+        out.append("        return values;\n");
+        out.append("    }\n");
+    }
+
+    /**
+     * Adds the scanning loop of TABLE mode, one table load per character.
+     */
+    private void appendTableLoop(StringBuilder out) {
+        out.append("        while (true) {\n");
+        out.append("            if (p == this.limit) {\n");
+        out.append("                int shift = fill();\n");
+        out.append("                if (shift < 0) {\n");
+        out.append("                    break;\n");
+        out.append("                }\n");
+        out.append("                p -= shift;\n");
+        out.append("                acceptedEnd -= shift;\n");
+        out.append("            }\n");
+        out.append("            char c = this.buffer[p];\n");
+        out.append("            state = TABLE[state * CLASS_COUNT + ((c < CLASS_MAP.length) ? CLASS_MAP[c] : 0)];\n");
+        out.append("            if (state < 0) {\n");
+        out.append("                break;\n");
+        out.append("            }\n");
+        out.append("            p++;\n");
+        out.append("            int token = ACCEPT[state];\n");
+        out.append("            if (token >= 0) {\n");
+        out.append("                acceptedToken = token;\n");
+        out.append("                acceptedEnd = p;\n");
+        out.append("            }\n");
+        out.append("        }\n");
+    }
+
+    /**
+     * Adds the scanning loop of DIRECT mode, a switch on the state whose cases find the next state
+     * with tests on the character. Every case is a loop of its own, so a state that moves to itself
+     * (the body of an identifier or a number) keeps scanning without going through the switch, and
+     * entering an accepting state records its token on the way.
+     */
+    private void appendDirectLoop(StringBuilder out, CompiledDfa dfa) {
+        int[] acceptTokens = dfa.getAcceptTokens();
+        List<int[]> runs = classRuns(dfa);
+        out.append("        char[] buffer = this.buffer;\n");
+        out.append("        int limit = this.limit;\n");
+        out.append("        scan:\n");
+        out.append("        while (true) {\n");
+        out.append("            switch (state) {\n");
+        for (int state = 0; state < dfa.getStateCount(); state++) {
+            String indent = "                        ";
+            out.append("                case ").append(state).append(":\n");
+            out.append("                    while (true) {\n");
+            out.append(indent).append("if (p == limit) {\n");
+            out.append(indent).append("    int shift = fill();\n");
+            out.append(indent).append("    if (shift < 0) {\n");
+            out.append(indent).append("        break scan;\n");
+            out.append(indent).append("    }\n");
+            out.append(indent).append("    p -= shift;\n");
+            out.append(indent).append("    acceptedEnd -= shift;\n");
+            out.append(indent).append("    buffer = this.buffer;\n");
+            out.append(indent).append("    limit = this.limit;\n");
+            out.append(indent).append("}\n");
+            out.append(indent).append("char c = buffer[p];\n");
+            List<int[]> ranges = stateRanges(dfa, runs, state);
+            appendRangeTests(out, ranges, 0, ranges.size(), state, acceptTokens, indent);
+            out.append(indent).append("break scan;\n");
+            out.append("                    }\n");
+        }
+        out.append("                default:\n");
+        out.append("                    break scan;\n");
+        out.append("            }\n");
+        out.append("        }\n");
+    }
+
+    /**
+     * Adds the tests of the ranges from..to-1 of a state, as a binary search when there are many.
+     * A matching range moves to its state and continues the loop of that state; no match falls
+     * through.
+     */
+    private void appendRangeTests(StringBuilder out, List<int[]> ranges, int from, int to, int state,
+                                  int[] acceptTokens, String indent) {
+        if (to - from <= LINEAR_TESTS) {
+            for (int i = from; i < to; i++) {
+                int[] range = ranges.get(i);
+                int next = range[2];
+                out.append(indent).append("if (");
+                if (range[0] == range[1]) {
+                    out.append("c == ").append(charLiteral(range[0]));
+                } else {
+                    out.append("c >= ").append(charLiteral(range[0])).append(" && c <= ").append(charLiteral(range[1]));
+                }
+                out.append(") {\n");
+                if (next == state) {
+                    out.append(indent).append("    p++;\n");
+                    if (acceptTokens[next] >= 0) {
+                        // the start state is never entered, so its token isn't recorded yet
+                        if (state == 0) {
+                            out.append(indent).append("    acceptedToken = ").append(acceptTokens[next]).append(";\n");
+                        }
+                        out.append(indent).append("    acceptedEnd = p;\n");
+                    }
+                    out.append(indent).append("    continue;\n");
+                } else {
+                    out.append(indent).append("    state = ").append(next).append(";\n");
+                    out.append(indent).append("    p++;\n");
+                    if (acceptTokens[next] >= 0) {
+                        out.append(indent).append("    acceptedToken = ").append(acceptTokens[next]).append(";\n");
+                        out.append(indent).append("    acceptedEnd = p;\n");
+                    }
+                    out.append(indent).append("    continue scan;\n");
+                }
+                out.append(indent).append("}\n");
+            }
+            return;
+        }
+        int middle = (from + to) >>> 1;
+        out.append(indent).append("if (c < ").append(charLiteral(ranges.get(middle)[0])).append(") {\n");
+        appendRangeTests(out, ranges, from, middle, state, acceptTokens, indent + "    ");
+        out.append(indent).append("} else {\n");
+        appendRangeTests(out, ranges, middle, to, state, acceptTokens, indent + "    ");
+        out.append(indent).append("}\n");
+    }
+
+    /**
+     * @return the runs of consecutive characters of the same class, as {first, last, class}
+     */
+    static List<int[]> classRuns(CompiledDfa dfa) {
+        char[] classMap = dfa.getClassMap();
+        List<int[]> runs = new ArrayList<>();
+        for (int c = 0; c < classMap.length; ) {
+            int last = c;
+            while (last + 1 < classMap.length && classMap[last + 1] == classMap[c]) {
+                last++;
+            }
+            runs.add(new int[]{c, last, classMap[c]});
+            c = last + 1;
+        }
+        return runs;
+    }
+
+    /**
+     * @return the sorted ranges of characters a state has a transition on, as {first, last, next
+     * state}, adjacent ranges leading to the same state being merged
+     */
+    static List<int[]> stateRanges(CompiledDfa dfa, List<int[]> runs, int state) {
+        List<int[]> ranges = new ArrayList<>();
+        for (int[] run : runs) {
+            int next = dfa.getNextState(state, run[2]);
+            if (next == Dfa.NO_STATE) {
+                continue;
+            }
+            int[] last = ranges.isEmpty() ? null : ranges.get(ranges.size() - 1);
+            if (last != null && last[2] == next && last[1] + 1 == run[0]) {
+                last[1] = run[1];
+            } else {
+                ranges.add(new int[]{run[0], run[1], next});
+            }
+        }
+        return ranges;
+    }
+
+    /**
+     * Writes a character as a Java literal, or as its code when it isn't printable ASCII.
+     */
+    private static String charLiteral(int c) {
+        if (c == '\'' || c == '\\') {
+            return "'\\" + (char) c + "'";
+        }
+        return (c >= 0x20 && c < 0x7F) ? "'" + (char) c + "'" : String.valueOf(c);
+    }
+
+    /**
+     * Writes a string as a Java literal. Only printable ASCII is written as is; the other characters
+     * are escaped, in octal below 256 so that no unicode escape can turn into a line break or a quote.
+     */
+    static String stringLiteral(String s) {
+        StringBuilder literal = new StringBuilder("\"");
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                literal.append('\\').append(c);
+            } else if (c >= 0x20 && c < 0x7F) {
+                literal.append(c);
+            } else if (c < 0x100) {
+                literal.append(String.format("\\%03o", (int) c));
+            } else {
+                literal.append(String.format("\\u%04x", (int) c));
+            }
+        }
+        return literal.append('"').toString();
+    }
+
+    /**
+     * Generates a scanner from a lexical rules file.
+     * Usage: ScannerGenerator rulesFile className [sourceDirectory [table|direct|auto]]
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: ScannerGenerator rulesFile className [sourceDirectory [table|direct|auto]]");
+            System.exit(1);
+        }
+        LexicalRulesParser parser = new LexicalRulesParser();
+        Map<String, Automaton> automata = parser.parseFile(args[0]);
+        CompiledDfa dfa = LexicalAnalyzer.compile(automata, parser.getTokenNames());
+        ScannerGenerator generator = new ScannerGenerator();
+        ScannerMode mode = (args.length > 3) ? ScannerMode.valueOf(args[3].toUpperCase(Locale.ROOT))
+                : generator.chooseMode(dfa);
+        Path file = generator.write(dfa, args[1], mode, Paths.get((args.length > 2) ? args[2] : "."));
+        System.out.println("Wrote " + file + " (" + dfa.getStateCount() + " states, " + dfa.getClassCount()
+                + " classes, " + mode + " mode, " + Files.size(file) + " bytes of source; a direct coded"
+                + " nextToken() would take about " + generator.estimateDirectCodeSize(dfa) + " bytes of bytecode)");
+    }
+}
@@ -0,0 +1,110 @@
+package LexicalAnalysisGenerator.Generation;
+
+import LexicalAnalysisGenerator.Analysis.LexicalAnalyzer;
+import LexicalAnalysisGenerator.Analysis.Tokenizer;
+import LexicalAnalysisGenerator.Analysis.TokenizerTest;
+import LexicalAnalysisGenerator.Automaton.Automaton;
+import LexicalAnalysisGenerator.Automaton.CompiledDfa;
+import LexicalAnalysisGenerator.Creation.LexicalRulesParser;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import java.io.BufferedReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Checks that the scanners generated in TABLE and DIRECT mode, and the scanner class defined at
+ * run time by the {@link ScannerClassGenerator}, split an input into the same tokens as the
+ * {@link Tokenizer}, whether they are given the whole input or read it from a Reader a few
+ * characters at a time. The generated sources are compiled with the system Java compiler, so this
+ * has to run on a JDK.
+ */
+public class ScannerGeneratorTest {
+    private static final ScannerGenerator generator = new ScannerGenerator();
+
+    public static void main(String[] args) throws Exception {
+        // a nullable rule, accepted by the start state
+        test("as: a*", "aaa aa b a");
+        test("as: a*\nbs: b+", "aaab bb a ab");
+        String rules = new String(Files.readAllBytes(Paths.get("inputs/lexical_rules.txt")), "UTF-8");
+        String statements = "int sum , count , pass , mnt; while (pass != 10)\n{ pass = pass + 1 ; if (mnt >= 2.5E3)"
+                + " mnt = 1.5 ; } 12.e x1y2 @ 3.14 boolean a==b";
+        test(rules, statements);
+        // an input longer than the buffer of a scanner, the last token ending it
+        StringBuilder input = new StringBuilder();
+        while (input.length() < 3 * (1 << 16)) {
+            input.append(statements).append('\n');
+        }
+        test(rules, input.append("x = x + abc").toString());
+        System.out.println("OK");
+    }
+
+    private static void test(String rules, String input) throws Exception {
+        LexicalRulesParser parser = new LexicalRulesParser();
+        Map<String, Automaton> automata = parser.parse(new BufferedReader(new StringReader(rules)));
+        List<String> tokenNames = parser.getTokenNames();
+        List<String> expected = tokens(LexicalAnalyzer.fromAutomata(automata, tokenNames).tokenize(input));
+        CompiledDfa dfa = LexicalAnalyzer.compile(automata, tokenNames);
+        for (ScannerMode mode : new ScannerMode[]{ScannerMode.TABLE, ScannerMode.DIRECT}) {
+            Path directory = Files.createTempDirectory("scanner");
+            Path source = generator.write(dfa, "GeneratedScanner", mode, directory);
+            JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+            if (compiler == null || compiler.run(null, null, null, source.toString()) != 0) {
+                throw new IllegalStateException("Could not compile " + source);
+            }
+            try (URLClassLoader loader = new URLClassLoader(new URL[]{directory.toUri().toURL()})) {
+                Class<?> scannerClass = loader.loadClass("GeneratedScanner");
+                Object scanner = scannerClass.getConstructor(CharSequence.class).newInstance(input);
+                check(mode + " scanner", rules, generatedTokens(scanner), expected);
+                scanner = scannerClass.getConstructor(Reader.class)
+                        .newInstance(new TokenizerTest.ChunkedReader(input, new Random(1)));
+                check(mode + " scanner reading a Reader", rules, generatedTokens(scanner), expected);
+            }
+        }
+        LexicalAnalyzer defined = new ScannerClassGenerator().define(dfa);
+        check("defined scanner", rules, tokens(defined.tokenize(input)), expected);
+        check("defined scanner reading a Reader", rules,
+                tokens(defined.tokenize(new TokenizerTest.ChunkedReader(input, new Random(1)))), expected);
+    }
+
+    private static void check(String scanner, String rules, List<String> actual, List<String> expected) {
+        if (!actual.equals(expected)) {
+            throw new AssertionError("The " + scanner + " of\n" + rules + "\ngave " + actual.size()
+                    + " tokens, expected " + expected.size() + (actual.size() < 20 ? ": " + actual + ", expected "
+                    + expected : ""));
+        }
+    }
+
+    private static List<String> tokens(Tokenizer tokenizer) throws Exception {
+        List<String> tokens = new ArrayList<>();
+        while (tokenizer.nextToken() != LexicalAnalyzer.EOF) {
+            tokens.add(tokenizer.getTokenName() + ":" + tokenizer.getLexeme() + "@" + tokenizer.getTokenStart());
+        }
+        return tokens;
+    }
+
+    private static List<String> generatedTokens(Object scanner) throws Exception {
+        Class<?> scannerClass = scanner.getClass();
+        Method nextToken = scannerClass.getMethod("nextToken");
+        Method getTokenName = scannerClass.getMethod("getTokenName");
+        Method getLexeme = scannerClass.getMethod("getLexeme");
+        Method getTokenStart = scannerClass.getMethod("getTokenStart");
+        List<String> tokens = new ArrayList<>();
+        while ((Integer) nextToken.invoke(scanner) != LexicalAnalyzer.EOF) {
+            tokens.add(getTokenName.invoke(scanner) + ":" + getLexeme.invoke(scanner) + "@"
+                    + getTokenStart.invoke(scanner));
+        }
+        return tokens;
+    }
+}
@@ -0,0 +1,19 @@
+package LexicalAnalysisGenerator.Generation;
+
+/**
+ * The ways a generated scanner can run its DFA.
+ */
+public enum ScannerMode {
+    /**
+     * The DFA is a next-state table indexed by the state and the character class.
+     */
+    TABLE,
+    /**
+     * Every state is a block of code testing the character, so no table is loaded.
+     */
+    DIRECT,
+    /**
+     * Direct code when the scanning method stays small enough to be compiled by the JIT, tables otherwise.
+     */
+    AUTO
+}